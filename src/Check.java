@@ -0,0 +1,505 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import uk.ac.qub.csc3021.graph.*;
+
+// Regression checks for the graph formats, loaders and algorithms. A small
+// random graph is generated in a temporary directory and written in every
+// format. PageRank from the baseline SparseMatrixCSR and PageRank.compute
+// on one thread is the reference: every other format, context and PageRank
+// variant must come within TOL of it in L1 distance. Connected components
+// must give exactly the component sizes of the baseline.
+//
+// Build and run with:
+// % make check
+// Add -v to see the log of the algorithms. The exit status is 0 when all
+// checks pass and 1 otherwise.
+class Check {
+    static final int N = 3000;            // vertices of the sample graph
+    static final int M = 24000;           // edges of the sample graph
+    static final double TOL = 1e-6;       // L1 distance allowed between PageRank vectors
+
+    static int num_checks = 0;
+    static int num_failed = 0;
+
+    // A check returns null when it passes, or a description of the failure
+    interface Body {
+        String run() throws Exception;
+    }
+
+    public static void main(String args[]) throws Exception {
+        boolean verbose = args.length > 0 && args[0].equals("-v");
+        File dir = Files.createTempDirectory("qub-graph-check").toFile();
+        PrintStream err = System.err;
+        if (!verbose)
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        ParallelContext single = new ParallelContextSingleThread();
+        ParallelContext q3 = new ParallelContextQ3(4);
+        try {
+            run(dir, single, q3);
+        } finally {
+            single.terminate();
+            q3.terminate();
+            System.setErr(err);
+            delete(dir);
+        }
+
+        System.out.println((num_checks - num_failed) + " of " + num_checks + " checks passed");
+        System.exit(num_failed == 0 ? 0 : 1);
+    }
+
+    static void run(File dir, ParallelContext single, ParallelContext q3) throws Exception {
+        // Step 1. Write the sample graphs: g is directed, u is undirected
+        String g_coo = file(dir, "g.coo");
+        String u_coo = file(dir, "u.coo");
+        writeCOO(g_coo, randomEdges(1, false));
+        writeCOO(u_coo, randomEdges(2, true));
+        SparseMatrixCOO g = new SparseMatrixCOO(g_coo);
+        SparseMatrixCOO u = new SparseMatrixCOO(u_coo);
+        String g_csr = file(dir, "g.csr"), g_csc = file(dir, "g.csc");
+        String u_csr = file(dir, "u.csr"), u_csc = file(dir, "u.csc");
+        GraphConverter.writeText(g_csr, GraphConverter.toCSR(g, 2));
+        GraphConverter.writeText(g_csc, GraphConverter.toCSC(g, 2));
+        GraphConverter.writeText(u_csr, GraphConverter.toCSR(u, 2));
+        GraphConverter.writeText(u_csc, GraphConverter.toCSC(u, 2));
+
+        // Step 2. The reference results
+        SparseMatrixCSR csr = new SparseMatrixCSR(g_csr);
+        final double[] base = PageRank.compute(csr, single);
+        final int[] baseCC = ConnectedComponents.compute(new SparseMatrixCSR(u_csr), single);
+        check("PageRank reference sums to 1", () -> Math.abs(sum(base) - 1.) < 1e-9 ? null : "sum " + sum(base));
+
+        // Step 3. Formats and loaders
+        String g_bin = file(dir, "g.bin"), g_csrbin = file(dir, "g-csr.bin");
+        SparseMatrixBinary.write(g_bin, GraphConverter.toCSC(g, 2));
+        SparseMatrixBinary.write(g_csrbin, GraphConverter.toCSR(g, 2));
+        String g_gz = file(dir, "g.csr.gz");
+        gzip(g_csr, g_gz);
+        String g_bgz = file(dir, "g-bgzf.csr.gz"), g_csc_bgz = file(dir, "g-bgzf.csc.gz");
+        String g_coo_bgz = file(dir, "g-bgzf.coo.gz");
+        bgzip(g_csr, g_bgz);
+        bgzip(g_csc, g_csc_bgz);
+        bgzip(g_coo, g_coo_bgz);
+
+        checkPR("CSR, 4 threads", base, () -> PageRank.compute(new SparseMatrixCSR(g_csr, 4), q3));
+        checkPR("CSC", base, () -> PageRank.compute(new SparseMatrixCSC(g_csc), single));
+        checkPR("CSC, 4 threads", base, () -> PageRank.compute(new SparseMatrixCSC(g_csc, 4), q3));
+        checkPR("COO", base, () -> PageRank.compute(new SparseMatrixCOO(g_coo), single));
+        checkPR("COO, 4 threads", base, () -> PageRank.compute(new SparseMatrixCOO(g_coo, 4), q3));
+        checkPR("BIN, CSC layout", base, () -> PageRank.compute(new SparseMatrixBinary(g_bin), q3));
+        checkPR("BIN, CSR layout", base, () -> PageRank.compute(new SparseMatrixBinary(g_csrbin), q3));
+        checkPR("OFFHEAP, CSR", base, () -> PageRank.compute(new SparseMatrixOffHeap(g_csr, 4), q3));
+        checkPR("OFFHEAP, CSC", base, () -> PageRank.compute(new SparseMatrixOffHeap(g_csc, 4), q3));
+        checkPR("COMPRESSED, CSR", base, () -> PageRank.compute(new SparseMatrixCompressed(g_csr, 4), q3));
+        checkPR("COMPRESSED, CSC", base, () -> PageRank.compute(new SparseMatrixCompressed(g_csc, 4), q3));
+        // ICHOOSE with the contexts the Driver picks for it
+        SparseMatrixCSRCompetition ichoose = new SparseMatrixCSRCompetition(g_csr, 4, true);
+        check("ICHOOSE, in memory, gets 4 threads", () -> withContext(Driver.createContext(false, 4), c ->
+                c instanceof ParallelContextQ3 && c.getNumThreads() == 4 ? null
+                        : c.getClass().getSimpleName() + " with " + c.getNumThreads() + " threads"));
+        checkPR("ICHOOSE, in memory, 4 threads", base,
+                () -> withContext(Driver.createContext(false, 4), c -> PageRank.compute(ichoose, c)));
+        checkPR("ICHOOSE, in memory, PRGS, 4 threads", base,
+                () -> withContext(Driver.createContext(false, 4), c -> PageRank.computeGaussSeidel(ichoose, c)));
+        checkPR("ICHOOSE, streaming, 4 threads", base, () -> withContext(Driver.createContext(true, 4),
+                c -> PageRank.compute(new SparseMatrixCSRCompetition(g_csr, 4, false), c)));
+        checkPR("gzip CSR", base, () -> PageRank.compute(new SparseMatrixCSR(g_gz), single));
+        checkPR("gzip CSR, 4 threads", base, () -> PageRank.compute(new SparseMatrixCSR(g_gz, 4), q3));
+        checkPR("BGZF CSR", base, () -> PageRank.compute(load(() -> new SparseMatrixCSR(g_bgz)), single));
+        checkPR("BGZF CSR, 4 threads", base,
+                () -> PageRank.compute(load(() -> new SparseMatrixCSR(g_bgz, 4)), q3));
+        checkPR("BGZF CSC, 4 threads", base,
+                () -> PageRank.compute(load(() -> new SparseMatrixCSC(g_csc_bgz, 4)), q3));
+        checkPR("BGZF COO, 4 threads", base,
+                () -> PageRank.compute(load(() -> new SparseMatrixCOO(g_coo_bgz, 4)), q3));
+
+        // Step 4. Converter and cache
+        checkPR("converter, CSC to CSR", base,
+                () -> PageRank.compute(GraphConverter.toCSR(new SparseMatrixCSC(g_csc), 4), q3));
+        checkPR("converter, CSR to CSC", base,
+                () -> PageRank.compute(GraphConverter.toCSC(csr, 4), q3));
+        checkPR("converter, CSR to COO", base,
+                () -> PageRank.compute(GraphConverter.toCOO(csr), q3));
+        GraphCache cache = new GraphCache(new File(dir, "cache"), 1L << 30);
+        checkPR("graph cache, miss", base, () -> PageRank.compute(cache.loadCSC(g_csc, 4), q3));
+        check("graph cache, hit", () -> {
+            SparseMatrix m = cache.loadCSC(g_csc, 4);
+            if (!(m instanceof SparseMatrixBinary))
+                return "loaded " + m.getClass().getSimpleName() + " instead of the cached copy";
+            return l1check(base, PageRank.compute(m, q3));
+        });
+
+        // Step 5. Parallel contexts
+        SparseMatrixCSC csc = new SparseMatrixCSC(g_csc, 4);
+        checkPR("context simple", base, () -> withContext(new ParallelContextSimple(4), c -> PageRank.compute(csc, c)));
+        checkPR("context forkjoin", base, () -> withContext(new ParallelContextForkJoin(4, 256), c -> PageRank.compute(csc, c)));
+        checkPR("context forkjoin, CSR", base, () -> withContext(new ParallelContextForkJoin(4, 256), c -> PageRank.compute(csr, c)));
+        checkPR("atomic accumulation", base, () -> withContext(new ParallelContextQ3(4), c -> {
+            c.setAtomicAccumulation(true);
+            return PageRank.compute(csr, c);
+        }));
+
+        // Step 6. PageRank variants
+        for (ParallelContext c : new ParallelContext[]{single, q3}) {
+            String t = c == single ? "" : ", 4 threads";
+            checkPR("PRGS, CSR" + t, base, () -> PageRank.computeGaussSeidel(csr, c));
+            checkPR("PRGS, CSC" + t, base, () -> PageRank.computeGaussSeidel(csc, c));
+            checkPR("PRDELTA, CSR" + t, base, () -> PageRank.computeDelta(csr, c));
+            checkPR("PRDELTA, CSC" + t, base, () -> PageRank.computeDelta(csc, c));
+            checkPR("PRQE, CSR" + t, base, () -> PageRank.computeExtrapolated(csr, c));
+            checkPR("PRQE, CSC" + t, base, () -> PageRank.computeExtrapolated(csc, c));
+            checkPR("batch of one" + t, base, () -> {
+                double[] uniform = new double[N];
+                Arrays.fill(uniform, 1.0 / N);
+                return PageRank.computeBatch(csr, new double[][]{uniform}, c)[0];
+            });
+        }
+        check("personalized batch", () -> {
+            int[][] seeds = {{0, 1, 2}, {17}, {100, 2000}};
+            double[][] batch = PageRank.computePersonalized(csc, seeds, q3);
+            for (int k = 0; k < seeds.length; k++) {
+                double[] one = PageRank.computePersonalized(csc, new int[][]{seeds[k]}, q3)[0];
+                String failure = l1check(one, batch[k]);
+                if (failure != null)
+                    return "seed set " + k + ": " + failure;
+                if (Math.abs(sum(batch[k]) - 1.) > 1e-9)
+                    return "seed set " + k + " sums to " + sum(batch[k]);
+            }
+            return null;
+        });
+        check("personalized batch rejects an empty seed set", () -> {
+            try {
+                PageRank.computePersonalized(csc, new int[][]{{}}, q3);
+                return "no exception";
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        });
+
+        // Step 7. Incremental PageRank after an edge batch
+        EdgeBatch batch = randomBatch(csr, 50);
+        check("edge batch, CSR and CSC agree", () -> l1check(
+                PageRank.compute(GraphConverter.update(csr, batch, 4), q3),
+                PageRank.compute(GraphConverter.update(csc, batch, 4), q3)));
+        for (ParallelContext c : new ParallelContext[]{single, q3}) {
+            String t = c == single ? "" : ", 4 threads";
+            check("incremental PageRank" + t, () -> {
+                SparseMatrixCSR updated = GraphConverter.update(csr, batch, 4);
+                if (updated.getNumEdges() != csr.getNumEdges())
+                    return "batch of 50 insertions and 50 deletions changed the edge count to " + updated.getNumEdges();
+                return l1check(PageRank.compute(updated, c), PageRank.computeIncremental(updated, base, batch, c));
+            });
+        }
+        check("edge batch rejects deleting a missing edge", () -> {
+            try {
+                GraphConverter.update(csr, new EdgeBatch(new int[0], new int[0], new int[]{0, 0}, new int[]{N - 1, N - 1}), 2);
+                return "no exception";
+            } catch (Exception e) {
+                return null;
+            }
+        });
+
+        // Step 8. Connected components
+        checkCC("CC, CSR, 4 threads", baseCC, () -> ConnectedComponents.compute(new SparseMatrixCSR(u_csr, 4), q3));
+        checkCC("CC, CSC, 4 threads", baseCC, () -> ConnectedComponents.compute(new SparseMatrixCSC(u_csc, 4), q3));
+        checkCC("CC, COO, 4 threads", baseCC, () -> ConnectedComponents.compute(new SparseMatrixCOO(u_coo, 4), q3));
+        checkCC("CC, OFFHEAP", baseCC, () -> ConnectedComponents.compute(new SparseMatrixOffHeap(u_csr, 4), q3));
+        checkCC("CC, COMPRESSED", baseCC, () -> ConnectedComponents.compute(new SparseMatrixCompressed(u_csr, 4), q3));
+        checkCC("CC, ICHOOSE, 4 threads", baseCC, () -> withContext(Driver.createContext(false, 4),
+                c -> ConnectedComponents.compute(new SparseMatrixCSRCompetition(u_csr, 4, true), c)));
+        checkSizes("DS, CSR", baseCC, () -> DisjointSetCC.compute(new SparseMatrixCSR(u_csr), single));
+        checkSizes("DS, CSR, 4 threads", baseCC, () -> DisjointSetCC.compute(new SparseMatrixCSR(u_csr, 4), q3));
+        checkSizes("DS, ICHOOSE streaming", baseCC,
+                () -> DisjointSetCC.compute(new SparseMatrixCSRCompetition(u_csr, 4, false), single));
+
+        // Step 9. Result files read back exactly
+        check("result writer, text", () -> {
+            String f = file(dir, "pr.txt");
+            ResultWriter.write(f, base, 4);
+            return Arrays.equals(base, readText(f, N)) ? null : "values differ after reading back";
+        });
+        check("result writer, binary", () -> {
+            String f = file(dir, "pr.bin");
+            ResultWriter.write(f, base, 4);
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(new File(f).toPath())).order(ByteOrder.LITTLE_ENDIAN);
+            if (b.getLong(16) != N)
+                return "header holds " + b.getLong(16) + " values";
+            for (int i = 0; i < N; i++) {
+                if (b.getDouble(24 + 8 * i) != base[i])
+                    return "value " + i + " differs";
+            }
+            return null;
+        });
+        check("result writer, ints", () -> {
+            String f = file(dir, "cc.txt");
+            ResultWriter.write(f, baseCC, 4);
+            double[] read = readText(f, baseCC.length);
+            for (int i = 0; i < baseCC.length; i++) {
+                if (read[i] != baseCC[i])
+                    return "value " + i + " differs";
+            }
+            return null;
+        });
+    }
+
+    // Run one check and report the outcome
+    static void check(String name, Body body) {
+        String failure;
+        try {
+            failure = body.run();
+        } catch (Throwable e) {
+            failure = "exception " + e;
+        }
+        num_checks++;
+        if (failure == null) {
+            System.out.println("ok      " + name);
+        } else {
+            num_failed++;
+            System.out.println("FAILED  " + name + ": " + failure);
+        }
+    }
+
+    interface PRBody {
+        double[] run() throws Exception;
+    }
+
+    interface CCBody {
+        int[] run() throws Exception;
+    }
+
+    interface ContextBody<T> {
+        T run(ParallelContext context) throws Exception;
+    }
+
+    interface LoadBody {
+        SparseMatrix run() throws Exception;
+    }
+
+    static void checkPR(String name, double[] expected, PRBody body) {
+        check("PageRank " + name, () -> l1check(expected, body.run()));
+    }
+
+    static void checkCC(String name, int[] expected, CCBody body) {
+        check(name, () -> Arrays.equals(expected, body.run()) ? null : "component sizes differ");
+    }
+
+    // Disjoint set labels the components differently, so only the multiset
+    // of component sizes is compared
+    static void checkSizes(String name, int[] expected, CCBody body) {
+        check(name, () -> {
+            int[] a = expected.clone();
+            int[] b = body.run().clone();
+            Arrays.sort(a);
+            Arrays.sort(b);
+            return Arrays.equals(a, b) ? null : "component sizes differ";
+        });
+    }
+
+    // The loaders report errors on System.err and keep what they read so
+    // far, which may already be the whole graph. Turn such a report into a
+    // failure of the check.
+    static SparseMatrix load(LoadBody body) throws Exception {
+        PrintStream err = System.err;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(log, true));
+        try {
+            SparseMatrix m = body.run();
+            if (log.toString().contains("Exception"))
+                throw new Exception(log.toString().trim());
+            return m;
+        } finally {
+            System.setErr(err);
+            err.print(log);
+        }
+    }
+
+    static <T> T withContext(ParallelContext context, ContextBody<T> body) throws Exception {
+        try {
+            return body.run(context);
+        } finally {
+            context.terminate();
+        }
+    }
+
+    static String l1check(double[] expected, double[] x) {
+        if (x == null)
+            return "no result";
+        if (x.length != expected.length)
+            return "length " + x.length + " instead of " + expected.length;
+        double d = 0.;
+        for (int i = 0; i < x.length; i++)
+            d += Math.abs(x[i] - expected[i]);
+        return d <= TOL ? null : "L1 distance " + d;
+    }
+
+    static double sum(double[] x) {
+        double s = 0.;
+        for (double v : x)
+            s += v;
+        return s;
+    }
+
+    // M distinct random edges without self loops, skewed so that a few
+    // vertices have many edges, as in real graphs. An undirected graph
+    // holds every edge in both directions.
+    static int[][] randomEdges(long seed, boolean undirected) {
+        Random random = new Random(seed);
+        java.util.Set<Long> seen = new java.util.HashSet<>();
+        int[] src = new int[2 * M];
+        int[] dst = new int[2 * M];
+        int m = 0;
+        while (m < M) {
+            double r = random.nextDouble();
+            int s = (int) (N * r * r * r);
+            r = random.nextDouble();
+            int d = (int) (N * r * r);
+            if (s == d || !seen.add((long) s * N + d))
+                continue;
+            src[m] = s;
+            dst[m++] = d;
+        }
+        if (undirected) {
+            int k = m;
+            for (int i = 0; i < k; i++) {
+                if (seen.add((long) dst[i] * N + src[i])) {
+                    src[m] = dst[i];
+                    dst[m++] = src[i];
+                }
+            }
+        }
+        return new int[][]{Arrays.copyOf(src, m), Arrays.copyOf(dst, m)};
+    }
+
+    static void writeCOO(String file, int[][] edges) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            out.print("COO\n" + N + "\n" + edges[0].length + "\n");
+            for (int i = 0; i < edges[0].length; i++)
+                out.print(edges[0][i] + " " + edges[1][i] + "\n");
+        }
+    }
+
+    // A batch that inserts num random new edges and deletes num edges of
+    // the graph, so the number of edges stays the same
+    static EdgeBatch randomBatch(SparseMatrixCSR matrix, int num) throws Exception {
+        SparseMatrixCOO coo = GraphConverter.toCOO(matrix);
+        int[][] edges = readCOO(coo);
+        java.util.Set<Long> present = new java.util.HashSet<>();
+        for (int i = 0; i < edges[0].length; i++)
+            present.add((long) edges[0][i] * N + edges[1][i]);
+        Random random = new Random(3);
+        int[] is = new int[num], id = new int[num], ds = new int[num], dd = new int[num];
+        for (int k = 0; k < num; ) {
+            int s = random.nextInt(N), d = random.nextInt(N);
+            if (s != d && present.add((long) s * N + d)) {
+                is[k] = s;
+                id[k++] = d;
+            }
+        }
+        java.util.Set<Integer> deleted = new java.util.HashSet<>();
+        for (int k = 0; k < num; ) {
+            int e = random.nextInt(edges[0].length);
+            if (deleted.add(e)) {
+                ds[k] = edges[0][e];
+                dd[k++] = edges[1][e];
+            }
+        }
+        return new EdgeBatch(is, id, ds, dd);
+    }
+
+    // The edges of a COO matrix, through its text form
+    static int[][] readCOO(SparseMatrixCOO coo) throws IOException {
+        File f = File.createTempFile("qub-graph-check", ".coo");
+        try {
+            GraphConverter.writeText(f.getPath(), coo);
+            try (BufferedReader rd = new BufferedReader(new FileReader(f))) {
+                rd.readLine();
+                rd.readLine();
+                int m = Integer.parseInt(rd.readLine());
+                int[][] edges = new int[2][m];
+                for (int i = 0; i < m; i++) {
+                    String[] parts = rd.readLine().split(" ");
+                    edges[0][i] = Integer.parseInt(parts[0]);
+                    edges[1][i] = Integer.parseInt(parts[1]);
+                }
+                return edges;
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    // Read a result file in text form: one line per vertex with the vertex
+    // number and the value
+    static double[] readText(String file, int n) throws IOException {
+        double[] v = new double[n];
+        try (BufferedReader rd = new BufferedReader(new FileReader(file))) {
+            for (int i = 0; i < n; i++) {
+                String[] parts = rd.readLine().split(" ");
+                if (Integer.parseInt(parts[0]) != i)
+                    throw new IOException("line " + i + " is for vertex " + parts[0]);
+                v[i] = Double.parseDouble(parts[1]);
+            }
+        }
+        return v;
+    }
+
+    static void gzip(String from, String to) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(to))) {
+            Files.copy(new File(from).toPath(), out);
+        }
+    }
+
+    // Write a file in BGZF format, as bgzip does: members of at most 16KB of
+    // input, each with its compressed size in a BC extra field, followed by
+    // the empty end-of-file member. The small members give the sample graph
+    // many of them, so several threads inflate it.
+    static void bgzip(String from, String to) throws IOException {
+        byte[] data = Files.readAllBytes(new File(from).toPath());
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(to))) {
+            for (int pos = 0; pos < data.length; pos += 1 << 14)
+                bgzfMember(out, data, pos, Math.min(data.length - pos, 1 << 14));
+            bgzfMember(out, data, 0, 0);
+        }
+    }
+
+    static void bgzfMember(OutputStream out, byte[] data, int off, int len) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        byte[] body = new byte[len + 1024];
+        int size = 0;
+        while (!deflater.finished())
+            size += deflater.deflate(body, size, body.length - size);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+
+        ByteBuffer member = ByteBuffer.allocate(18 + size + 8).order(ByteOrder.LITTLE_ENDIAN);
+        member.put(new byte[]{31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255});
+        member.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2);
+        member.putShort((short) (member.capacity() - 1));
+        member.put(body, 0, size).putInt((int) crc.getValue()).putInt(len);
+        out.write(member.array());
+    }
+
+    static String file(File dir, String name) {
+        return new File(dir, name).getPath();
+    }
+
+    static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children)
+                delete(c);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,68 @@
+import uk.ac.qub.csc3021.graph.*;
+
+// Converts a graph between the file formats. The formats are taken from the
+// filename extensions: .csr, .csc and .coo for the text formats and .bin for
+// the binary format, which holds either the CSR or the CSC layout (CSC by
+// default, as that is what the parallel edgemap works on best). Text input
+// files may be gzip-compressed, with names ending in .gz.
+class Converter {
+    public static void main(String args[]) {
+        if (args.length < 3) {
+            System.err.println("Usage: java Converter num-threads inputfile outputfile [csr|csc]");
+            return;
+        }
+
+        int num_threads = Integer.parseInt(args[0]);
+        String inputFile = args[1];
+        String outputFile = args[2];
+        String inputName = inputFile.endsWith(".gz") ? inputFile.substring(0, inputFile.length() - 3) : inputFile;
+        String inputExt = inputName.substring(inputName.lastIndexOf(".") + 1);
+        String outputExt = outputFile.substring(outputFile.lastIndexOf(".") + 1);
+        boolean binaryCSR = args.length > 3 && args[3].equalsIgnoreCase("csr");
+
+        long tm_start = System.nanoTime();
+
+        try {
+            // Step 1. Read in the file
+            SparseMatrix matrix;
+            if (inputExt.equals("csr"))
+                matrix = new SparseMatrixCSR(inputFile, num_threads);
+            else if (inputExt.equals("csc"))
+                matrix = new SparseMatrixCSC(inputFile, num_threads);
+            else if (inputExt.equals("coo"))
+                matrix = new SparseMatrixCOO(inputFile, num_threads);
+            else if (inputExt.equals("bin"))
+                matrix = new SparseMatrixBinary(inputFile);
+            else {
+                System.err.println("input file has unrecognized filename extension \"" + inputExt + "\"");
+                return;
+            }
+
+            double tm_input = (double) (System.nanoTime() - tm_start) * 1e-9;
+            System.err.println("Reading input: " + tm_input + " seconds");
+            tm_start = System.nanoTime();
+
+            // Step 2. Convert and write out
+            if (outputExt.equals("csr"))
+                GraphConverter.writeText(outputFile, GraphConverter.toCSR(matrix, num_threads));
+            else if (outputExt.equals("csc"))
+                GraphConverter.writeText(outputFile, GraphConverter.toCSC(matrix, num_threads));
+            else if (outputExt.equals("coo"))
+                GraphConverter.writeText(outputFile, GraphConverter.toCOO(matrix));
+            else if (outputExt.equals("bin") && binaryCSR)
+                SparseMatrixBinary.write(outputFile, GraphConverter.toCSR(matrix, num_threads));
+            else if (outputExt.equals("bin"))
+                SparseMatrixBinary.write(outputFile, GraphConverter.toCSC(matrix, num_threads));
+            else {
+                System.err.println("output file has unrecognized filename extension \"" + outputExt + "\"");
+                return;
+            }
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+
+        double tm_convert = (double) (System.nanoTime() - tm_start) * 1e-9;
+        System.err.println("Converting and writing: " + tm_convert + " seconds");
+    }
+}
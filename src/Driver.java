@@ -2,13 +2,6 @@
  * Use command-line flag -ea for java VM to enable assertions.
  */
 
-import java.io.BufferedWriter;
-import java.io.OutputStreamWriter;
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
-import java.io.FileNotFoundException;
-import java.io.UnsupportedEncodingException;
-
 import uk.ac.qub.csc3021.graph.*;
 
 // Main class with main() method. Performs the PageRank computation until
@@ -27,20 +20,25 @@ class Driver {
         String inputFileCOO = null;
         String inputFileCSR = null;
         String inputFileCSC = null;
+        String inputFileBIN = null;
         for (int i = 4; i < args.length; ++i) {
-            String ext = args[i].substring(args[i].lastIndexOf(".") + 1);
+            // graph.csr.gz is a gzip-compressed graph.csr
+            String name = args[i].endsWith(".gz") ? args[i].substring(0, args[i].length() - 3) : args[i];
+            String ext = name.substring(name.lastIndexOf(".") + 1);
             if (ext.equals("csc"))
                 inputFileCSC = args[i];
             else if (ext.equals("csr"))
                 inputFileCSR = args[i];
             else if (ext.equals("coo"))
                 inputFileCOO = args[i];
+            else if (ext.equals("bin"))
+                inputFileBIN = args[i];
             else if (ext.equals("csc-csr")) {
                 inputFileCSC = args[i];
                 inputFileCSR = args[i];
             } else {
                 System.err.println("argument " + i + " has unrecognized filename extension \"" + ext + "\"");
-                System.err.println("Note that files must be decompressed before calling this program");
+                System.err.println("Note that compressed files must be gzipped and end in .gz");
                 System.err.println("Usage: java Driver algorithm num-threads outputfile format inputfiles...");
                 return;
             }
@@ -51,6 +49,7 @@ class Driver {
         System.err.println("Input file CSR: " + inputFileCSR);
         System.err.println("Input file CSC: " + inputFileCSC);
         System.err.println("Input file COO: " + inputFileCOO);
+        System.err.println("Input file BIN: " + inputFileBIN);
         System.err.println("Algorithm: " + algorithm);
         System.err.println("Number of threads: " + num_threads);
         System.err.println("Output file: " + outputFile);
@@ -58,18 +57,50 @@ class Driver {
         long tm_start = System.nanoTime();
 
         SparseMatrix matrix;
+        boolean streaming = false; // ICHOOSE re-reads the file on every edgemap
 
         // Step 1. Read in the file
+        // With more than one thread, the text formats are loaded in parallel.
+        // With -Dgraph.cache.dir=/path, CSR and CSC files are parsed once and
+        // then loaded from the graph cache (see GraphCache).
+        GraphCache cache = GraphCache.fromProperties();
         if (format.equalsIgnoreCase("CSR")) {
-            matrix = new SparseMatrixCSR(inputFileCSR);
+            if (cache != null)
+                matrix = cache.loadCSR(inputFileCSR, num_threads);
+            else
+                matrix = num_threads > 1 ? new SparseMatrixCSR(inputFileCSR, num_threads)
+                        : new SparseMatrixCSR(inputFileCSR);
         } else if (format.equalsIgnoreCase("CSC")) {
-            matrix = new SparseMatrixCSC(inputFileCSC);
+            if (cache != null)
+                matrix = cache.loadCSC(inputFileCSC, num_threads);
+            else
+                matrix = num_threads > 1 ? new SparseMatrixCSC(inputFileCSC, num_threads)
+                        : new SparseMatrixCSC(inputFileCSC);
         } else if (format.equalsIgnoreCase("COO")) {
-            matrix = new SparseMatrixCOO(inputFileCOO);
+            matrix = num_threads > 1 ? new SparseMatrixCOO(inputFileCOO, num_threads)
+                    : new SparseMatrixCOO(inputFileCOO);
+        } else if (format.equalsIgnoreCase("BIN")) {
+            matrix = new SparseMatrixBinary(inputFileBIN);
+        } else if (format.equalsIgnoreCase("OFFHEAP")) {
+            // CSC or CSR text file parsed straight into off-heap memory
+            matrix = new SparseMatrixOffHeap(inputFileCSC != null ? inputFileCSC : inputFileCSR,
+                    num_threads);
+        } else if (format.equalsIgnoreCase("COMPRESSED")) {
+            // CSC or CSR text file with delta + variable-byte coded lists
+            matrix = new SparseMatrixCompressed(inputFileCSC != null ? inputFileCSC : inputFileCSR,
+                    num_threads);
         } else if (format.equalsIgnoreCase("ICHOOSE")) {
             // Pick any you want.
 //             matrix = new SparseMatrixCOO( inputFileCOO );
-             matrix = new SparseMatrixCSRCompetition(inputFileCSR, num_threads);
+             // Iterative algorithms sweep the graph many times, so they parse
+             // the file once into memory; the disjoint set pass streams it.
+             boolean in_memory = algorithm.equalsIgnoreCase("PR")
+                     || algorithm.equalsIgnoreCase("PRGS")
+                     || algorithm.equalsIgnoreCase("PRDELTA")
+                     || algorithm.equalsIgnoreCase("PRQE")
+                     || algorithm.equalsIgnoreCase("CC");
+             matrix = new SparseMatrixCSRCompetition(inputFileCSR, num_threads, in_memory);
+             streaming = !in_memory;
 //            matrix = new SparseMatrixCSC(inputFileCSC);
         } else {
             System.err.println("Unknown format '" + format + "'");
@@ -88,49 +119,67 @@ class Driver {
         // - ParallelContextSingleThread: fully implemented
         // - ParallelContextSimple: needs to be completed by yourself when
         //   asked for in the assignment brief.
-        if (format.equalsIgnoreCase("ICHOOSE"))
-            ParallelContextHolder.set(new ParallelContextSimpleCompetition(num_threads));
-        else
-            ParallelContextHolder.set(new ParallelContextSingleThread());
+        // - ParallelContextQ3: persistent worker threads.
+        // - ParallelContextForkJoin: work stealing.
+        // -Dgraph.context=q3|simple|forkjoin selects the context. On CSR and
+        // COO, PageRank accumulates per thread, or in one atomic array with
+        // -Dgraph.accumulate=atomic.
+        // The context is passed to the algorithm, which is how a program
+        // would run several algorithms at once, each with its own threads.
+        ParallelContext context = createContext(streaming, num_threads);
 
         try {
-            if (algorithm.equalsIgnoreCase("PR")) {
-                // Step 2. Calculate PageRank values for the graph
-                double PR[] = PageRank.compute(matrix);
+            if (algorithm.equalsIgnoreCase("PR")
+                    || algorithm.equalsIgnoreCase("PRGS")
+                    || algorithm.equalsIgnoreCase("PRDELTA")
+                    || algorithm.equalsIgnoreCase("PRQE")) {
+                // Step 2. Calculate PageRank values for the graph, by power
+                // iteration or, for PRGS, by Gauss-Seidel iteration, for
+                // PRDELTA, by residual push, or for PRQE, by power iteration
+                // with quadratic extrapolation
+                double PR[];
+                if (algorithm.equalsIgnoreCase("PRGS"))
+                    PR = PageRank.computeGaussSeidel(matrix, context);
+                else if (algorithm.equalsIgnoreCase("PRDELTA"))
+                    PR = PageRank.computeDelta(matrix, context);
+                else if (algorithm.equalsIgnoreCase("PRQE"))
+                    PR = PageRank.computeExtrapolated(matrix, context);
+                else
+                    PR = PageRank.compute(matrix, context);
 
                 double tm_total = (double) (System.nanoTime() - tm_start) * 1e-9;
                 System.err.println("PageRank: total time: " + tm_total + " seconds");
                 tm_start = System.nanoTime();
 
                 // Step 3. Dump PageRank values to file
-                writeToFile(outputFile, PR);
+                writeToFile(outputFile, PR, num_threads);
 
                 double tm_write = (double) (System.nanoTime() - tm_start) * 1e-9;
                 System.err.println("Writing file: " + tm_write + " seconds");
             } else if (algorithm.equalsIgnoreCase("CC")) {
                 // Step 2. Calculate connected components of the graph
-                int CC[] = ConnectedComponents.compute(matrix);
+                int CC[] = ConnectedComponents.compute(matrix, context);
 
                 double tm_total = (double) (System.nanoTime() - tm_start) * 1e-9;
                 System.err.println("Connected Components: total time: " + tm_total + " seconds");
                 tm_start = System.nanoTime();
 
                 // Step 3. Dump component sizes to file
-                writeToFile(outputFile, CC);
+                writeToFile(outputFile, CC, num_threads);
 
                 double tm_write = (double) (System.nanoTime() - tm_start) * 1e-9;
                 System.err.println("Writing file: " + tm_write + " seconds");
             } else if (algorithm.equalsIgnoreCase("DS")
                     || algorithm.equalsIgnoreCase("OPT")) {
                 // Step 2. Calculate connected components of the graph
-                int CC[] = DisjointSetCC.compute(matrix);
+                int CC[] = DisjointSetCC.compute(matrix, context);
 
                 double tm_total = (double) (System.nanoTime() - tm_start) * 1e-9;
                 System.err.println("Disjoint Set: total time: " + tm_total + " seconds");
                 tm_start = System.nanoTime();
 
                 // Step 3. Dump component sizes to file
-                writeToFile(outputFile, CC);
+                writeToFile(outputFile, CC, num_threads);
 
                 double tm_write = (double) (System.nanoTime() - tm_start) * 1e-9;
                 System.err.println("Writing file: " + tm_write + " seconds");
@@ -139,62 +188,49 @@ class Driver {
                 return;
             }
         } finally {
-            ParallelContextHolder.get().terminate();
+            context.terminate();
         }
         System.err.println("All done");
     }
 
-    static void writeToFile(String file, double[] v) {
+    // The context selected by -Dgraph.context and -Dgraph.accumulate. A
+    // streaming ICHOOSE matrix runs its own threads over the file, so its
+    // context only hands it the whole edgemap. Once in memory, it is a CSR
+    // matrix like any other and gets the same context.
+    static ParallelContext createContext(boolean streaming, int num_threads) {
+        String contextName = System.getProperty("graph.context", "q3");
+        ParallelContext context;
+        if (streaming)
+            context = new ParallelContextSimpleCompetition(num_threads);
+        else if (num_threads > 1 && contextName.equalsIgnoreCase("forkjoin"))
+            context = new ParallelContextForkJoin(num_threads);
+        else if (num_threads > 1 && contextName.equalsIgnoreCase("simple"))
+            context = new ParallelContextSimple(num_threads);
+        else if (num_threads > 1)
+            context = new ParallelContextQ3(num_threads);
+        else
+            context = new ParallelContextSingleThread();
+        context.setAtomicAccumulation(
+                System.getProperty("graph.accumulate", "partial").equalsIgnoreCase("atomic"));
+        return context;
+    }
+
+    // Text output unless the file name ends in .bin; see ResultWriter
+    static void writeToFile(String file, double[] v, int num_threads) {
         try {
-            OutputStreamWriter os
-                    = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
-            BufferedWriter wr = new BufferedWriter(os);
-            writeToBuffer(wr, v);
-            wr.close();
-            os.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found: " + e);
-            return;
-        } catch (UnsupportedEncodingException e) {
-            System.err.println("Unsupported encoding exception: " + e);
-            return;
+            ResultWriter.write(file, v, num_threads);
         } catch (Exception e) {
             System.err.println("Exception: " + e);
             return;
         }
     }
 
-    static void writeToBuffer(BufferedWriter buf, double[] v) {
-        PrintWriter out = new PrintWriter(buf);
-        for (int i = 0; i < v.length; ++i)
-            out.println(i + " " + v[i]);
-        out.close();
-    }
-
-    static void writeToFile(String file, int[] v) {
+    static void writeToFile(String file, int[] v, int num_threads) {
         try {
-            OutputStreamWriter os
-                    = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
-            BufferedWriter wr = new BufferedWriter(os);
-            writeToBuffer(wr, v);
-            wr.close();
-            os.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found: " + e);
-            return;
-        } catch (UnsupportedEncodingException e) {
-            System.err.println("Unsupported encoding exception: " + e);
-            return;
+            ResultWriter.write(file, v, num_threads);
         } catch (Exception e) {
             System.err.println("Exception: " + e);
             return;
         }
     }
-
-    static void writeToBuffer(BufferedWriter buf, int[] v) {
-        PrintWriter out = new PrintWriter(buf);
-        for (int i = 0; i < v.length; ++i)
-            out.println(i + " " + v[i]);
-        out.close();
-    }
 }
@@ -50,7 +50,7 @@ class Validator {
         tm_start = System.nanoTime();
 
         // What facilities for parallel execution do we have?
-        ParallelContextHolder.set(new ParallelContextSingleThread());
+        ParallelContext context = new ParallelContextSingleThread();
         try {
             if (algorithm.equalsIgnoreCase("PR")) {
                 // Read computed values
@@ -60,7 +60,7 @@ class Validator {
                 readFromFile("./test.txt", values, n);      // made this change
 
                 // Validate PageRank values for the graph
-                PageRank.validate(matrix, values);
+                PageRank.validate(matrix, values, context);
             } else if (algorithm.equalsIgnoreCase("CC")) {
                 // We are hard-coding the solutions here:
                 if (inputFile.matches(".*rMatGraph_J_5_100.*")) {
@@ -117,7 +117,7 @@ class Validator {
                 System.exit(43); // Kattis
             }
         } finally {
-            ParallelContextHolder.get().terminate();
+            context.terminate();
         }
         // Should not get here
         System.exit(43); // Kattis
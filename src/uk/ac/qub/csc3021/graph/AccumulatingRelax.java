@@ -0,0 +1,13 @@
+package uk.ac.qub.csc3021.graph;
+
+// A Relax operation that adds a value for every edge to the entry of the
+// destination in an accumulator array, i.e., relax(src, dst) performs
+// accumulator()[dst] += contribution(src). As the additions may be done in
+// any order, a parallel context can run it on matrices that visit the edges
+// by source (CSR, COO) by accumulating into per-thread arrays and summing
+// those afterwards (see EdgeAccumulator).
+interface AccumulatingRelax extends Relax {
+    public double contribution(int source);
+
+    public double[] accumulator();
+}
@@ -0,0 +1,94 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// An array of ints or longs outside the Java heap that is indexed by long
+// positions. It is either a view of a region of a file, or a scratch area
+// allocated off-heap. A single ByteBuffer cannot cover more than 2GB, so the memory
+// is held in chunks of 2^CHUNK_SHIFT bytes. The chunk size is a multiple of
+// 8, hence no int or long straddles two chunks.
+class ChunkedBuffer {
+    static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final ByteBuffer[] chunks;
+
+    private ChunkedBuffer(ByteBuffer[] chunks) {
+        this.chunks = chunks;
+    }
+
+    // Map length bytes of the file starting at offset. The values are read
+    // in little-endian byte order.
+    static ChunkedBuffer map(FileChannel fileChannel, long offset, long length) throws IOException {
+        int num_chunks = (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+        ByteBuffer[] chunks = new ByteBuffer[Math.max(num_chunks, 1)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i << CHUNK_SHIFT;
+            long size = Math.min(length - start, 1L << CHUNK_SHIFT);
+            chunks[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, offset + start, Math.max(size, 0))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new ChunkedBuffer(chunks);
+    }
+
+    // Allocate length bytes of zeroed memory outside the Java heap. Direct
+    // ByteBuffers are capped by -XX:MaxDirectMemorySize, which defaults to
+    // the heap size, so the memory is a writable mapping of a temporary file
+    // instead, which only the size of the disk and address space limit. The
+    // file is created in the directory given by -Dgraph.offheap.dir, or the
+    // temporary directory, and removed once mapped, or at the latest when
+    // the program exits. The operating system pages it in and out as needed.
+    static ChunkedBuffer allocate(long length) throws IOException {
+        String dir = System.getProperty("graph.offheap.dir", System.getProperty("java.io.tmpdir"));
+        Path path = Files.createTempFile(Paths.get(dir), "qub-graph-", ".tmp");
+        path.toFile().deleteOnExit();
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            int num_chunks = (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+            ByteBuffer[] chunks = new ByteBuffer[Math.max(num_chunks, 1)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                long size = Math.min(length - start, 1L << CHUNK_SHIFT);
+                // mapping beyond the end grows the file, and the new part
+                // reads as zeroes
+                chunks[i] = fileChannel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(size, 0))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new ChunkedBuffer(chunks);
+        } catch (IOException e) {
+            throw new IOException("cannot allocate " + length + " bytes off-heap in " + dir
+                    + " (set -Dgraph.offheap.dir to a directory with more space): " + e.getMessage());
+        }
+    }
+
+    // Return the int at position i, i.e., at byte offset 4 * i
+    int getInt(long i) {
+        long b = i << 2;
+        return chunks[(int) (b >>> CHUNK_SHIFT)].getInt((int) (b & CHUNK_MASK));
+    }
+
+    // Return the long at position i, i.e., at byte offset 8 * i
+    long getLong(long i) {
+        long b = i << 3;
+        return chunks[(int) (b >>> CHUNK_SHIFT)].getLong((int) (b & CHUNK_MASK));
+    }
+
+    // Store an int at position i. Fails on read-only file mappings.
+    void putInt(long i, int value) {
+        long b = i << 2;
+        chunks[(int) (b >>> CHUNK_SHIFT)].putInt((int) (b & CHUNK_MASK), value);
+    }
+
+    // Store a long at position i. Fails on read-only file mappings.
+    void putLong(long i, long value) {
+        long b = i << 3;
+        chunks[(int) (b >>> CHUNK_SHIFT)].putLong((int) (b & CHUNK_MASK), value);
+    }
+}
@@ -1,5 +1,8 @@
 package uk.ac.qub.csc3021.graph;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 // Calculate the strongly connected components by propagating labels.
 // This algorithm only works correctly for undirected graphs
 public class ConnectedComponents {
@@ -15,11 +18,62 @@ public class ConnectedComponents {
             // return y[dst] == 0;
         }
 
+        public void relaxIn(int dst, int srcs[], int from, int to) {
+            int m = y[dst];
+            for (int j = from; j < to; j++)
+                m = Math.min(m, y[srcs[j]]);
+            y[dst] = m;
+        }
+
+        public void relaxOut(int src, int dsts[], int from, int to) {
+            int v = y[src];
+            for (int j = from; j < to; j++)
+                y[dsts[j]] = Math.min(y[dsts[j]], v);
+        }
+
         int x[];
         int y[];
     }
 
+    // Label propagation on a frontier: a vertex whose label decreased passes
+    // it on to its neighbours in the next step
+    private static class CCFrontierRelax implements FrontierRelax {
+        private static final VarHandle LABEL = MethodHandles.arrayElementVarHandle(int[].class);
+        int y[];
+
+        CCFrontierRelax(int y_[]) {
+            y = y_;
+        }
+
+        public boolean update(int src, int dst) {
+            int label = y[src];
+            if (label < y[dst]) {
+                y[dst] = label;
+                return true;
+            }
+            return false;
+        }
+
+        // Atomic minimum: retry until the label is stored or is no longer
+        // smaller than the current one
+        public boolean updateAtomic(int src, int dst) {
+            int label = y[src];
+            int old = (int) LABEL.getVolatile(y, dst);
+            while (label < old) {
+                if (LABEL.compareAndSet(y, dst, old, label))
+                    return true;
+                old = (int) LABEL.getVolatile(y, dst);
+            }
+            return false;
+        }
+    }
+
     public static int[] compute(SparseMatrix matrix) {
+        return compute(matrix, ParallelContextHolder.get());
+    }
+
+    // Compute the components with the threads of context
+    public static int[] compute(SparseMatrix matrix, ParallelContext context) {
         long tm_start = System.nanoTime();
 
         final int n = matrix.getNumVertices();
@@ -51,7 +105,32 @@ public class ConnectedComponents {
         System.err.println("Initialisation: " + tm_init + " seconds");
         tm_start = System.nanoTime();
 
-        ParallelContext context = ParallelContextHolder.get();
+        // The graph is undirected, so the transpose of the matrix is the
+        // matrix in the other layout. Matrices that have both layouts only
+        // visit the edges of the vertices whose label changed; the others
+        // sweep all edges until no label changes.
+        SparseMatrix out = matrix.groupsBySource() ? matrix : null;
+        SparseMatrix in = matrix.groupsByDestination() ? matrix : null;
+        if (out == null && in != null)
+            out = in.transpose();
+        if (in == null && out != null)
+            in = out.transpose();
+        if (out != null || in != null) {
+            CCFrontierRelax frontierRelax = new CCFrontierRelax(y);
+            VertexSubset frontier = VertexSubset.all(n);
+            while (!frontier.isEmpty()) {
+                frontier = context.edgemap(out, in, frontier, frontierRelax);
+
+                double tm_step = (double) (System.nanoTime() - tm_start) * 1e-9;
+                if (verbose)
+                    System.err.println("iteration " + iter + " active=" + frontier.size()
+                            + " time=" + tm_step + " seconds");
+                tm_start = System.nanoTime();
+                ++iter;
+            }
+            System.arraycopy(y, 0, x, 0, n);
+            change = false;
+        }
 
         while (iter < max_iter && change) {
             // 1. Assign same label to connected vertices
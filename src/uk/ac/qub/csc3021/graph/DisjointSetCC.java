@@ -16,6 +16,16 @@ public class DisjointSetCC {
             union(src, dst);
         }
 
+        public void relaxIn(int dst, int srcs[], int from, int to) {
+            for (int j = from; j < to; j++)
+                union(srcs[j], dst);
+        }
+
+        public void relaxOut(int src, int dsts[], int from, int to) {
+            for (int j = from; j < to; j++)
+                union(src, dsts[j]);
+        }
+
         // returns the index of the root
         public int find(int x) {
             int u = x;
@@ -52,6 +62,11 @@ public class DisjointSetCC {
     }
 
     public static int[] compute(SparseMatrix matrix) {
+        return compute(matrix, ParallelContextHolder.get());
+    }
+
+    // Compute the components with the threads of context
+    public static int[] compute(SparseMatrix matrix, ParallelContext context) {
         long tm_start = System.nanoTime();
 
         final int n = matrix.getNumVertices();
@@ -72,8 +87,6 @@ public class DisjointSetCC {
         System.err.println("Initialisation: " + tm_init + " seconds");
         tm_start = System.nanoTime();
 
-        ParallelContext context = ParallelContextHolder.get();
-
         // 1. Make pass over graph
         context.edgemap(matrix, DSCCrelax);
 
@@ -0,0 +1,125 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.util.Arrays;
+
+// Runs an AccumulatingRelax in parallel on a matrix that visits edges by
+// source, where several threads may update the same destination. Every
+// thread (slot) adds its contributions to a partial array of its own, and
+// the partial arrays are summed into the accumulator afterwards, in
+// parallel over ranges of vertices, by reduce. The partial arrays are kept
+// for the next edgemap and cleared while reducing.
+//
+// The partial arrays take num_threads times as much memory as the
+// accumulator. When that would exceed PARTIAL_LIMIT, or when atomic mode
+// is selected, all threads add to one shared AtomicDoubleArray instead.
+class EdgeAccumulator {
+    static final long PARTIAL_LIMIT = 1L << 27; // doubles in all partial arrays (1GB)
+
+    private final boolean atomic;
+    private AccumulatingRelax relax;
+    private int n = -1;
+    private double[][] partials = new double[0][];
+    private AtomicDoubleArray shared = null;
+
+    EdgeAccumulator(boolean atomic) {
+        this.atomic = atomic;
+    }
+
+    // Prepare for an edgemap with relax on a graph of n vertices
+    void begin(AccumulatingRelax relax, int n) {
+        this.relax = relax;
+        if (this.n != n) {
+            this.n = n;
+            partials = new double[0][];
+            shared = null;
+        }
+    }
+
+    // The Relax operation for the thread using slot s
+    Relax slot(int s) {
+        double[] partial = partial(s);
+        if (partial != null)
+            return new PartialRelax(relax, partial);
+        return new SharedRelax(relax, shared());
+    }
+
+    // Adds to a partial array; the contribution of a source is computed
+    // once for all its outgoing edges
+    private static class PartialRelax implements Relax {
+        private final AccumulatingRelax relax;
+        private final double[] partial;
+
+        PartialRelax(AccumulatingRelax relax, double[] partial) {
+            this.relax = relax;
+            this.partial = partial;
+        }
+
+        public void relax(int src, int dst) {
+            partial[dst] += relax.contribution(src);
+        }
+
+        public void relaxOut(int src, int dsts[], int from, int to) {
+            double w = relax.contribution(src);
+            for (int j = from; j < to; j++)
+                partial[dsts[j]] += w;
+        }
+    }
+
+    // As above, adding atomically to the shared array
+    private static class SharedRelax implements Relax {
+        private final AccumulatingRelax relax;
+        private final AtomicDoubleArray shared;
+
+        SharedRelax(AccumulatingRelax relax, AtomicDoubleArray shared) {
+            this.relax = relax;
+            this.shared = shared;
+        }
+
+        public void relax(int src, int dst) {
+            shared.getAndAdd(dst, relax.contribution(src));
+        }
+
+        public void relaxOut(int src, int dsts[], int from, int to) {
+            double w = relax.contribution(src);
+            for (int j = from; j < to; j++)
+                shared.getAndAdd(dsts[j], w);
+        }
+    }
+
+    // The partial array of slot s, or null if using the shared array
+    private synchronized double[] partial(int s) {
+        if (atomic || s < 0 || (long) (s + 1) * n > PARTIAL_LIMIT)
+            return null;
+        if (s >= partials.length)
+            partials = Arrays.copyOf(partials, s + 1);
+        if (partials[s] == null)
+            partials[s] = new double[n];
+        return partials[s];
+    }
+
+    private synchronized AtomicDoubleArray shared() {
+        if (shared == null)
+            shared = new AtomicDoubleArray(n);
+        return shared;
+    }
+
+    // Add the partial sums of vertices from...to-1 to the accumulator and
+    // clear them. Called once all threads have completed their edges.
+    void reduce(int from, int to) {
+        double[] y = relax.accumulator();
+        for (double[] partial : partials) {
+            if (partial == null)
+                continue;
+            for (int v = from; v < to; v++) {
+                y[v] += partial[v];
+                partial[v] = 0;
+            }
+        }
+        if (shared != null) {
+            for (int v = from; v < to; v++) {
+                y[v] += shared.get(v);
+                shared.set(v, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package uk.ac.qub.csc3021.graph;
+
+// A batch of changes to the edges of a graph whose vertices stay the same:
+// the edges insert_src[i] -> insert_dst[i] are added, and one copy of each
+// edge delete_src[i] -> delete_dst[i] is removed. GraphConverter.update
+// applies a batch to a matrix, and PageRank.computeIncremental updates the
+// PageRank values for it.
+public class EdgeBatch {
+    final int[] insert_src;
+    final int[] insert_dst;
+    final int[] delete_src;
+    final int[] delete_dst;
+
+    public EdgeBatch(int[] insert_src, int[] insert_dst, int[] delete_src, int[] delete_dst) {
+        if (insert_src.length != insert_dst.length || delete_src.length != delete_dst.length)
+            throw new IllegalArgumentException("edge batch needs as many sources as destinations");
+        this.insert_src = insert_src;
+        this.insert_dst = insert_dst;
+        this.delete_src = delete_src;
+        this.delete_dst = delete_dst;
+    }
+
+    public int getNumInsertions() {
+        return insert_src.length;
+    }
+
+    public int getNumDeletions() {
+        return delete_src.length;
+    }
+
+    // Check that all vertices are in 0...n-1
+    void check(int n) throws Exception {
+        for (int[] a : new int[][]{insert_src, insert_dst, delete_src, delete_dst}) {
+            for (int v : a) {
+                if (v < 0 || v >= n)
+                    throw new Exception("edge batch refers to vertex " + v + " of a graph with " + n + " vertices");
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package uk.ac.qub.csc3021.graph;
+
+// The operation performed on the edges of a frontier edgemap (see
+// ParallelContext.edgemap with a VertexSubset), in the style of Ligra.
+interface FrontierRelax {
+    // Update destination along the edge from source. Return true if
+    // destination changed and joins the next frontier. No other thread
+    // updates destination at the same time.
+    public boolean update(int source, int destination);
+
+    // As update, where other threads may update destination at the same
+    // time, so the update must be atomic
+    public boolean updateAtomic(int source, int destination);
+
+    // Can destination still change? Lets a pull skip the remaining edges
+    // of a destination.
+    default boolean cond(int destination) {
+        return true;
+    }
+}
@@ -0,0 +1,158 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// A cache of parsed graphs on disk. The first time a CSR or CSC text file is
+// loaded, the parsed arrays are written to a file in the binary format (see
+// SparseMatrixBinary) in the cache directory. Later loads of the same file
+// memory map the cached copy instead of parsing the text again.
+//
+// Cached files are named after a hash of the absolute path, size and
+// modification time of the input file, as well as the layout, so a changed
+// input file misses the cache. Files are written under a temporary name and
+// renamed into place, so concurrent runs never see half-written files. When
+// the cache grows beyond its size bound, the least recently used files are
+// deleted; a hit counts as a use.
+//
+// The cache is off unless a directory is given, so that no run writes
+// copies of large graphs to a shared disk without being asked to.
+//
+// System properties:
+//   graph.cache.dir       cache directory; unset or empty disables the cache
+//   graph.cache.maxBytes  size bound of the cache directory (default: 4GB)
+public class GraphCache {
+    static final String SUFFIX = ".bin";
+
+    private final File dir;
+    private final long maxBytes;
+
+    // A cache configured from the system properties, or null if disabled
+    public static GraphCache fromProperties() {
+        String dir = System.getProperty("graph.cache.dir", "");
+        if (dir.isEmpty())
+            return null;
+        long maxBytes = Long.parseLong(System.getProperty("graph.cache.maxBytes", "" + (4L << 30)));
+        System.err.println("Graph cache: " + dir + ", up to " + maxBytes + " bytes");
+        return new GraphCache(new File(dir), maxBytes);
+    }
+
+    public GraphCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    // Load a file in CSR (or CSC-CSR) format
+    public SparseMatrix loadCSR(String file, int num_threads) {
+        return load(file, SparseMatrixBinary.LAYOUT_CSR, num_threads);
+    }
+
+    // Load a file in CSC (or CSC-CSR) format
+    public SparseMatrix loadCSC(String file, int num_threads) {
+        return load(file, SparseMatrixBinary.LAYOUT_CSC, num_threads);
+    }
+
+    private SparseMatrix load(String file, int layout, int num_threads) {
+        File cached = null;
+        try {
+            cached = cacheFile(new File(file), layout);
+            if (cached.isFile()) {
+                SparseMatrixBinary matrix = open(cached, layout);
+                cached.setLastModified(System.currentTimeMillis());
+                System.err.println("Graph cache: hit " + cached);
+                return matrix;
+            }
+        } catch (Exception e) {
+            // a damaged cache file is replaced below
+            System.err.println("Graph cache: " + e);
+            if (cached != null)
+                cached.delete();
+        }
+
+        // Parse the text file as usual, then save the arrays
+        if (layout == SparseMatrixBinary.LAYOUT_CSR) {
+            SparseMatrixCSR matrix = num_threads > 1 ? new SparseMatrixCSR(file, num_threads)
+                    : new SparseMatrixCSR(file);
+            if (cached != null && matrix.index != null)
+                store(cached, layout, matrix.num_vertices, matrix.index, matrix.destinations);
+            return matrix;
+        } else {
+            SparseMatrixCSC matrix = num_threads > 1 ? new SparseMatrixCSC(file, num_threads)
+                    : new SparseMatrixCSC(file);
+            if (cached != null && matrix.index != null)
+                store(cached, layout, matrix.num_vertices, matrix.index, matrix.sources);
+            return matrix;
+        }
+    }
+
+    private static SparseMatrixBinary open(File cached, int layout) throws Exception {
+        SparseMatrixBinary matrix = new SparseMatrixBinary();
+        try (RandomAccessFile raf = new RandomAccessFile(cached, "r")) {
+            matrix.readFile(raf.getChannel());
+        }
+        if (matrix.csc != (layout == SparseMatrixBinary.LAYOUT_CSC))
+            throw new Exception("file format error -- layout");
+        return matrix;
+    }
+
+    // Failing to write the cache is not an error, the graph is loaded anyway
+    private void store(File cached, int layout, int num_vertices, int[] index, int[] edges) {
+        File tmp = null;
+        try {
+            dir.mkdirs();
+            tmp = File.createTempFile("graph", ".tmp", dir);
+            SparseMatrixBinary.write(tmp.getPath(), layout, num_vertices, index, edges);
+            Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            System.err.println("Graph cache: stored " + cached);
+            evict(cached);
+        } catch (Exception e) {
+            System.err.println("Graph cache: " + e);
+            if (tmp != null)
+                tmp.delete();
+        }
+    }
+
+    // Delete the least recently used files until the cache fits its bound.
+    // The file just stored is kept even if it alone exceeds the bound.
+    private void evict(File keep) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null)
+            return;
+        List<File> list = new ArrayList<>();
+        long total = 0;
+        for (File f : files) {
+            list.add(f);
+            total += f.length();
+        }
+        list.sort(Comparator.comparingLong(File::lastModified));
+        for (File f : list) {
+            if (total <= maxBytes)
+                break;
+            if (f.equals(keep))
+                continue;
+            long length = f.length();
+            if (f.delete()) {
+                System.err.println("Graph cache: evicted " + f);
+                total -= length;
+            }
+        }
+    }
+
+    // The cache file for an input file, from its identity and the layout
+    File cacheFile(File input, int layout) throws Exception {
+        File abs = input.getAbsoluteFile();
+        String key = abs.getPath() + "\0" + abs.length() + "\0" + abs.lastModified() + "\0" + layout;
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] digest = md.digest(key.getBytes(StandardCharsets.UTF_8));
+        StringBuilder name = new StringBuilder(abs.getName()).append('-');
+        for (int i = 0; i < 8; i++)
+            name.append(String.format("%02x", digest[i]));
+        return new File(dir, name + SUFFIX);
+    }
+}
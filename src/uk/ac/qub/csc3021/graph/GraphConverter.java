@@ -0,0 +1,327 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+// Conversion between the graph representations: transposing CSR into CSC
+// and back, building CSR or CSC from COO or from any other SparseMatrix,
+// and writing the text formats. The binary format is written by
+// SparseMatrixBinary.
+//
+// Grouping the edges by source or by destination is a parallel counting
+// sort: the threads count the edges per vertex, a parallel prefix sum turns
+// the counts into the index array, and the threads scatter the edges to
+// their positions. Finally every adjacency list is sorted, so that the
+// result does not depend on the order in which the threads scattered edges.
+public class GraphConverter {
+    // Transpose a CSR matrix into CSC
+    public static SparseMatrixCSC toCSC(SparseMatrixCSR matrix, int num_threads) {
+        int[][] grouped = group(matrix.num_vertices, matrix.index, matrix.destinations, null, num_threads);
+        return new SparseMatrixCSC(matrix.num_vertices, grouped[0], grouped[1]);
+    }
+
+    // Transpose a CSC matrix into CSR
+    public static SparseMatrixCSR toCSR(SparseMatrixCSC matrix, int num_threads) {
+        int[][] grouped = group(matrix.num_vertices, matrix.index, matrix.sources, null, num_threads);
+        return new SparseMatrixCSR(matrix.num_vertices, grouped[0], grouped[1]);
+    }
+
+    // Group the edges of a COO matrix by destination
+    public static SparseMatrixCSC toCSC(SparseMatrixCOO matrix, int num_threads) {
+        int[][] grouped = group(matrix.num_vertices, null, matrix.destinationEdges, matrix.sourceEdges, num_threads);
+        return new SparseMatrixCSC(matrix.num_vertices, grouped[0], grouped[1]);
+    }
+
+    // Group the edges of a COO matrix by source
+    public static SparseMatrixCSR toCSR(SparseMatrixCOO matrix, int num_threads) {
+        int[][] grouped = group(matrix.num_vertices, null, matrix.sourceEdges, matrix.destinationEdges, num_threads);
+        return new SparseMatrixCSR(matrix.num_vertices, grouped[0], grouped[1]);
+    }
+
+    // Convert any matrix to CSC
+    public static SparseMatrixCSC toCSC(SparseMatrix matrix, int num_threads) throws Exception {
+        if (matrix instanceof SparseMatrixCSC)
+            return (SparseMatrixCSC) matrix;
+        if (matrix instanceof SparseMatrixCSR)
+            return toCSC((SparseMatrixCSR) matrix, num_threads);
+        return toCSC(toCOO(matrix), num_threads);
+    }
+
+    // Convert any matrix to CSR
+    public static SparseMatrixCSR toCSR(SparseMatrix matrix, int num_threads) throws Exception {
+        if (matrix instanceof SparseMatrixCSR)
+            return (SparseMatrixCSR) matrix;
+        if (matrix instanceof SparseMatrixCSC)
+            return toCSR((SparseMatrixCSC) matrix, num_threads);
+        return toCSR(toCOO(matrix), num_threads);
+    }
+
+    // Apply a batch of edge changes to a CSR matrix, giving a new matrix
+    public static SparseMatrixCSR update(SparseMatrixCSR matrix, EdgeBatch batch, int num_threads) throws Exception {
+        batch.check(matrix.num_vertices);
+        int[][] updated = update(matrix.num_vertices, matrix.index, matrix.destinations,
+                batch.insert_src, batch.insert_dst, batch.delete_src, batch.delete_dst, num_threads);
+        return new SparseMatrixCSR(matrix.num_vertices, updated[0], updated[1]);
+    }
+
+    // Apply a batch of edge changes to a CSC matrix, giving a new matrix
+    public static SparseMatrixCSC update(SparseMatrixCSC matrix, EdgeBatch batch, int num_threads) throws Exception {
+        batch.check(matrix.num_vertices);
+        int[][] updated = update(matrix.num_vertices, matrix.index, matrix.sources,
+                batch.insert_dst, batch.insert_src, batch.delete_dst, batch.delete_src, num_threads);
+        return new SparseMatrixCSC(matrix.num_vertices, updated[0], updated[1]);
+    }
+
+    // Apply changes to the lists of a compressed layout. The edges to insert
+    // and to delete are given as the vertex whose list holds them (key) and
+    // the entry in that list (value). The changes are grouped by key like
+    // the edges above, then the threads count the length of every new list,
+    // a prefix sum gives the new index, and the threads fill in the lists:
+    // the old entries that are not deleted, followed by the inserted ones,
+    // sorted. Returns the index array and the lists.
+    static int[][] update(int n, int[] index, int[] lists, int[] ins_key, int[] ins_val,
+                          int[] del_key, int[] del_val, int num_threads) throws Exception {
+        final int[][] ins = group(n, null, ins_key, ins_val, num_threads);
+        final int[][] del = group(n, null, del_key, del_val, num_threads);
+        final int[] outIndex = new int[n + 1];
+        final int[] missing = {-1};
+
+        // 1. Count the entries of every new list, noting a deleted edge that
+        //    is not in the graph
+        parallel(num_threads, t -> {
+            for (int v = start(n, t, num_threads); v < start(n, t + 1, num_threads); v++) {
+                int kept = filter(lists, index[v], index[v + 1], del[1], del[0][v], del[0][v + 1], null, 0);
+                if (index[v + 1] - index[v] - kept != del[0][v + 1] - del[0][v])
+                    missing[0] = v;
+                outIndex[v + 1] = kept + ins[0][v + 1] - ins[0][v];
+            }
+        });
+        if (missing[0] >= 0)
+            throw new Exception("edge batch deletes an edge of vertex " + missing[0] + " that is not in the graph");
+
+        // 2. Prefix sum over blocks, as in group
+        final long[] blockBase = new long[num_threads + 1];
+        parallel(num_threads, t -> {
+            long sum = 0;
+            for (int v = start(n, t, num_threads); v < start(n, t + 1, num_threads); v++)
+                sum += outIndex[v + 1];
+            blockBase[t + 1] = sum;
+        });
+        for (int t = 0; t < num_threads; t++)
+            blockBase[t + 1] += blockBase[t];
+        final int[] outLists = new int[SparseMatrix.arrayLength(blockBase[num_threads])];
+        parallel(num_threads, t -> {
+            int where = (int) blockBase[t];
+            for (int v = start(n, t, num_threads); v < start(n, t + 1, num_threads); v++) {
+                int length = outIndex[v + 1];
+                outIndex[v] = where;
+                where += length;
+            }
+        });
+        outIndex[n] = outLists.length;
+
+        // 3. Fill in and sort every list
+        parallel(num_threads, t -> {
+            for (int v = start(n, t, num_threads); v < start(n, t + 1, num_threads); v++) {
+                int pos = outIndex[v] + filter(lists, index[v], index[v + 1], del[1], del[0][v], del[0][v + 1],
+                        outLists, outIndex[v]);
+                int count = ins[0][v + 1] - ins[0][v];
+                System.arraycopy(ins[1], ins[0][v], outLists, pos, count);
+                Arrays.sort(outLists, outIndex[v], outIndex[v + 1]);
+            }
+        });
+
+        return new int[][]{outIndex, outLists};
+    }
+
+    // Go through lists[from...to-1], skipping one entry for every entry in
+    // the sorted deletions dels[dfrom...dto-1], and store the other entries
+    // at out[pos...] unless out is null. Returns the number of entries kept.
+    private static int filter(int[] lists, int from, int to, int[] dels, int dfrom, int dto, int[] out, int pos) {
+        if (dfrom == dto) {
+            if (out != null)
+                System.arraycopy(lists, from, out, pos, to - from);
+            return to - from;
+        }
+        boolean[] used = new boolean[dto - dfrom];
+        int kept = 0;
+        for (int j = from; j < to; j++) {
+            int k = Arrays.binarySearch(dels, dfrom, dto, lists[j]);
+            if (k >= 0) {
+                // move to the first copy, then the first one not used yet
+                while (k > dfrom && dels[k - 1] == lists[j])
+                    k--;
+                while (k < dto && dels[k] == lists[j] && used[k - dfrom])
+                    k++;
+                if (k < dto && dels[k] == lists[j]) {
+                    used[k - dfrom] = true;
+                    continue;
+                }
+            }
+            if (out != null)
+                out[pos + kept] = lists[j];
+            kept++;
+        }
+        return kept;
+    }
+
+    // List the edges of any matrix in COO layout, in the order edgemap
+    // visits them
+    public static SparseMatrixCOO toCOO(SparseMatrix matrix) throws Exception {
+        if (matrix instanceof SparseMatrixCOO)
+            return (SparseMatrixCOO) matrix;
+        int m = SparseMatrix.arrayLength(matrix.getNumEdges());
+        int[] sources = new int[m];
+        int[] destinations = new int[m];
+        int[] where = new int[1];
+        matrix.edgemap((src, dst) -> {
+            sources[where[0]] = src;
+            destinations[where[0]] = dst;
+            where[0]++;
+        });
+        return new SparseMatrixCOO(matrix.getNumVertices(), sources, destinations);
+    }
+
+    // Group edges by key. The edges are either given in compressed form,
+    // where edge j with index[v] <= j < index[v+1] has key keys[j] and value
+    // v, or, when index is null, as pairs keys[j] and values[j]. Returns the
+    // index array and the sorted lists of values of the grouped edges.
+    static int[][] group(int n, int[] index, int[] keys, int[] values, int num_threads) {
+        final int m = keys.length;
+        final AtomicIntegerArray counts = new AtomicIntegerArray(n);
+        final int[] outIndex = new int[n + 1];
+        final int[] outValues = new int[m];
+
+        // 1. Count edges per key
+        parallel(num_threads, t -> {
+            if (index != null) {
+                for (int v = start(n, t, num_threads); v < start(n, t + 1, num_threads); v++)
+                    for (int j = index[v]; j < index[v + 1]; j++)
+                        counts.getAndIncrement(keys[j]);
+            } else {
+                for (int j = start(m, t, num_threads); j < start(m, t + 1, num_threads); j++)
+                    counts.getAndIncrement(keys[j]);
+            }
+        });
+
+        // 2. Prefix sum: every thread sums a block of counts, the block sums
+        //    are accumulated in order, and every thread fills in its block
+        final int[] blockBase = new int[num_threads + 1];
+        parallel(num_threads, t -> {
+            int sum = 0;
+            for (int k = start(n, t, num_threads); k < start(n, t + 1, num_threads); k++)
+                sum += counts.get(k);
+            blockBase[t + 1] = sum;
+        });
+        for (int t = 0; t < num_threads; t++)
+            blockBase[t + 1] += blockBase[t];
+        parallel(num_threads, t -> {
+            int where = blockBase[t];
+            for (int k = start(n, t, num_threads); k < start(n, t + 1, num_threads); k++) {
+                outIndex[k] = where;
+                where += counts.get(k);
+                counts.set(k, outIndex[k]); // reused as insertion cursor
+            }
+        });
+        outIndex[n] = m;
+
+        // 3. Scatter the values to their lists
+        parallel(num_threads, t -> {
+            if (index != null) {
+                for (int v = start(n, t, num_threads); v < start(n, t + 1, num_threads); v++)
+                    for (int j = index[v]; j < index[v + 1]; j++)
+                        outValues[counts.getAndIncrement(keys[j])] = v;
+            } else {
+                for (int j = start(m, t, num_threads); j < start(m, t + 1, num_threads); j++)
+                    outValues[counts.getAndIncrement(keys[j])] = values[j];
+            }
+        });
+
+        // 4. Sort every list
+        parallel(num_threads, t -> {
+            for (int k = start(n, t, num_threads); k < start(n, t + 1, num_threads); k++)
+                Arrays.sort(outValues, outIndex[k], outIndex[k + 1]);
+        });
+
+        return new int[][]{outIndex, outValues};
+    }
+
+    // First position of part t when splitting length positions in num_parts
+    private static int start(int length, int t, int num_parts) {
+        return (int) ((long) length * t / num_parts);
+    }
+
+    // Run body(t) for t = 0 ... num_threads-1, each on a thread of its own
+    private static void parallel(int num_threads, IntConsumer body) {
+        Thread[] threads = new Thread[num_threads];
+        for (int i = 0; i < num_threads; i++) {
+            final int t = i;
+            threads[i] = new Thread(() -> body.accept(t));
+            threads[i].start();
+        }
+        for (int i = 0; i < num_threads; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+
+            }
+        }
+    }
+
+    // Write a CSR matrix in the CSR text format
+    public static void writeText(String file, SparseMatrixCSR matrix) throws IOException {
+        writeText(file, "CSR", matrix.num_vertices, matrix.index, matrix.destinations);
+    }
+
+    // Write a CSC matrix in the CSC text format
+    public static void writeText(String file, SparseMatrixCSC matrix) throws IOException {
+        writeText(file, "CSC", matrix.num_vertices, matrix.index, matrix.sources);
+    }
+
+    private static void writeText(String file, String header, int num_vertices, int[] index,
+                                  int[] adjacency) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+            writeHeader(out, header, num_vertices, adjacency.length);
+            byte[] scratch = new byte[12];
+            for (int i = 0; i < num_vertices; i++) {
+                writeInt(out, i, scratch);
+                for (int j = index[i]; j < index[i + 1]; j++) {
+                    out.write(' ');
+                    writeInt(out, adjacency[j], scratch);
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    // Write a COO matrix in the COO text format
+    public static void writeText(String file, SparseMatrixCOO matrix) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+            writeHeader(out, "COO", matrix.num_vertices, matrix.num_edges);
+            byte[] scratch = new byte[12];
+            for (int i = 0; i < matrix.num_edges; i++) {
+                writeInt(out, matrix.sourceEdges[i], scratch);
+                out.write(' ');
+                writeInt(out, matrix.destinationEdges[i], scratch);
+                out.write('\n');
+            }
+        }
+    }
+
+    private static void writeHeader(OutputStream out, String header, int num_vertices, long num_edges)
+            throws IOException {
+        out.write((header + "\n" + num_vertices + "\n" + num_edges + "\n").getBytes("UTF-8"));
+    }
+
+    // Write a non-negative int in decimal without creating a String
+    private static void writeInt(OutputStream out, int value, byte[] scratch) throws IOException {
+        int pos = scratch.length;
+        do {
+            scratch[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        out.write(scratch, pos, scratch.length - pos);
+    }
+}
@@ -0,0 +1,206 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+// Opens gzip-compressed graph files as a stream of decompressed bytes, so
+// the loaders parse the graph while it is being inflated and no
+// decompressed copy is ever written to disk.
+//
+// A gzip file may consist of several members, each compressed on its own.
+// Members can only be inflated in parallel if their compressed size is known
+// without inflating them, as the gzip header does not record it. Files
+// written by bgzip (the BGZF format) store the size of every member in a
+// "BC" extra field. Such files are inflated by a pool of threads, one member
+// per task, while the stream hands out the members in file order. At most
+// a few members per thread are in flight, so the memory used stays bounded.
+// Other gzip files are inflated sequentially by GZIPInputStream.
+class GzipInput {
+    private static final int HEADER_SIZE = 18; // BGZF member header
+
+    static boolean isGzip(String file) {
+        return file.endsWith(".gz");
+    }
+
+    // Open a file, decompressing it on the fly if its name ends in .gz
+    static InputStream open(String file, int num_threads) throws IOException {
+        if (!isGzip(file))
+            return new FileInputStream(file);
+        if (num_threads > 1 && isBlocked(file))
+            return new ParallelStream(file, num_threads);
+        return new GZIPInputStream(new FileInputStream(file), 1 << 16);
+    }
+
+    // As above, for the line-by-line loaders of the text formats
+    static BufferedReader openReader(String file, int num_threads) throws IOException {
+        return new BufferedReader(new InputStreamReader(open(file, num_threads), "UTF-8"), 1 << 16);
+    }
+
+    // Read what is left after the graph, so that every member is inflated
+    // and its CRC-32 checked, up to and including the last one
+    static void drain(BufferedReader rd) throws IOException {
+        char[] rest = new char[1 << 12];
+        while (rd.read(rest) >= 0)
+            ;
+    }
+
+    // Does the first member carry its size in a BC extra field?
+    private static boolean isBlocked(String file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return memberSize(raf.getChannel(), 0) > 0;
+        }
+    }
+
+    // Return the compressed size of the member starting at pos, -1 if the
+    // header holds no BC extra field, or 0 at the end of the file
+    private static long memberSize(FileChannel fileChannel, long pos) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (fileChannel.read(header, pos + header.position()) < 0)
+                break;
+        }
+        if (header.position() == 0)
+            return 0;
+        if (header.position() < HEADER_SIZE
+                || (header.get(0) & 0xff) != 31 || (header.get(1) & 0xff) != 139
+                || header.get(2) != 8 || (header.get(3) & 4) == 0
+                || header.getShort(10) != 6
+                || header.get(12) != 'B' || header.get(13) != 'C' || header.getShort(14) != 2)
+            return -1;
+        return (header.getShort(16) & 0xffff) + 1;
+    }
+
+    // Inflate one member: header, raw deflate data, CRC-32 and length. The
+    // deflate data is inflated until it ends, even when the member is
+    // empty, as is the end-of-file member of every BGZF file.
+    private static byte[] inflate(byte[] member, long pos) throws Exception {
+        int trailer = member.length - 8;
+        ByteBuffer tail = ByteBuffer.wrap(member, trailer, 8).order(ByteOrder.LITTLE_ENDIAN);
+        int crc = tail.getInt();
+        int size = tail.getInt();
+
+        byte[] data = new byte[size];
+        byte[] excess = new byte[1]; // catches data beyond the stated length
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, HEADER_SIZE, trailer - HEADER_SIZE);
+            int where = 0;
+            while (!inflater.finished()) {
+                int count = where < size ? inflater.inflate(data, where, size - where)
+                        : inflater.inflate(excess);
+                if (where == size && count > 0)
+                    break;
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                where += count;
+            }
+            if (where != size || !inflater.finished())
+                throw new Exception("file format error -- gzip member at offset " + pos + " has wrong length");
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 check = new CRC32();
+        check.update(data);
+        if ((int) check.getValue() != crc)
+            throw new Exception("file format error -- gzip member at offset " + pos + " fails CRC check");
+        return data;
+    }
+
+    private static class ParallelStream extends InputStream {
+        private final RandomAccessFile raf;
+        private final FileChannel fileChannel;
+        private final ExecutorService pool;
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        private final int max_pending;
+        private long next = 0;          // file offset of the next member to submit
+        private byte[] current = new byte[0];
+        private int pos = 0;
+
+        ParallelStream(String file, int num_threads) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            fileChannel = raf.getChannel();
+            pool = Executors.newFixedThreadPool(num_threads, r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+            max_pending = 4 * num_threads;
+            try {
+                fill();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        // Submit members until enough are in flight or the file ends
+        private void fill() throws IOException {
+            while (pending.size() < max_pending) {
+                long size = memberSize(fileChannel, next);
+                if (size == 0)
+                    return;
+                if (size < 0)
+                    throw new IOException("file format error -- gzip member at offset " + next
+                            + " has no block size");
+                final long start = next;
+                final byte[] member = new byte[(int) size];
+                ByteBuffer buffer = ByteBuffer.wrap(member);
+                while (buffer.hasRemaining()) {
+                    if (fileChannel.read(buffer, start + buffer.position()) < 0)
+                        throw new IOException("premature end of file");
+                }
+                pending.add(pool.submit(() -> inflate(member, start)));
+                next += size;
+            }
+        }
+
+        // Move on to the next non-empty member; false at the end of the file
+        private boolean advance() throws IOException {
+            while (pos == current.length) {
+                Future<byte[]> head = pending.poll();
+                if (head == null)
+                    return false;
+                try {
+                    current = head.get();
+                } catch (Exception e) {
+                    throw new IOException(e.getCause() != null ? e.getCause().getMessage() : e.toString());
+                }
+                pos = 0;
+                fill();
+            }
+            return true;
+        }
+
+        public int read() throws IOException {
+            if (!advance())
+                return -1;
+            return current[pos++] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!advance())
+                return -1;
+            int count = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+
+        public void close() throws IOException {
+            pool.shutdownNow();
+            raf.close();
+        }
+    }
+}
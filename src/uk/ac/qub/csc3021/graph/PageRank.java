@@ -1,10 +1,12 @@
 package uk.ac.qub.csc3021.graph;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.concurrent.Semaphore;
 
 // Performs the PageRank computation until convergence is reached.
 public class PageRank {
-    private static class PageRankRelax implements Relax {
+    private static class PageRankRelax implements AccumulatingRelax {
         int outdeg[];
         double d;
         double x[];
@@ -30,6 +32,166 @@ public class PageRank {
             double w = d / (double) outdeg[src];
             y[dst] += w * x[src];
         }
+
+        // Sum the contributions of the incoming edges of dst in a local
+        // variable, adding them in the same order as relax
+        public void relaxIn(int dst, int srcs[], int from, int to) {
+            double s = y[dst];
+            for (int j = from; j < to; j++) {
+                int src = srcs[j];
+                s += (d / (double) outdeg[src]) * x[src];
+            }
+            y[dst] = s;
+        }
+
+        // The contribution of src is the same for all its outgoing edges
+        public void relaxOut(int src, int dsts[], int from, int to) {
+            double w = (d / (double) outdeg[src]) * x[src];
+            for (int j = from; j < to; j++)
+                y[dsts[j]] += w;
+        }
+
+        // The same update, for contexts that accumulate per thread
+        public double contribution(int src) {
+            double w = d / (double) outdeg[src];
+            return w * x[src];
+        }
+
+        public double[] accumulator() {
+            return y;
+        }
+    }
+
+    // Pull kernel for matrices that visit the incoming edges of every vertex
+    // (CSC layout). The contribution c[s] = d * x[s] / outdeg[s] of every
+    // source is computed once per iteration, so each edge only costs a read
+    // of c[] and an add into a local sum, without any division.
+    private static class PageRankPullRelax implements Relax {
+        int outdeg[];
+        double d;
+        double x[];
+        double y[];
+        double c[];
+
+        PageRankPullRelax(int outdeg_[], double d_, double x_[], double y_[]) {
+            outdeg = outdeg_;
+            d = d_;
+            x = x_;
+            y = y_;
+            c = new double[x_.length];
+        }
+
+        // Compute the contributions of the vertices from...to-1 from x
+        void contributions(int from, int to) {
+            for (int s = from; s < to; s++)
+                c[s] = outdeg[s] == 0 ? 0 : (d / (double) outdeg[s]) * x[s];
+        }
+
+        public void relax(int src, int dst) {
+            y[dst] += c[src];
+        }
+
+        public void relaxIn(int dst, int srcs[], int from, int to) {
+            double s = y[dst];
+            for (int j = from; j < to; j++)
+                s += c[srcs[j]];
+            y[dst] = s;
+        }
+    }
+
+    // Gauss-Seidel sweep over a matrix in CSC layout. The new value of a
+    // destination is stored in x straight away, so the vertices after it in
+    // the same sweep already use it. This needs all incoming edges of a
+    // destination at once, so it is not a Relax: threads sweep disjoint
+    // ranges of destinations and read the values of other ranges as they
+    // are at that moment, i.e. asynchronously; the values only move towards
+    // the same fixed point.
+    private static class PageRankGSSweep {
+        SparseMatrixCSC matrix;
+        double w[];       // d / outdeg[s], or 0 for vertices without edges
+        double x[];
+        double diff[];    // change of every vertex in the last sweep
+        double teleport;  // weight added to every vertex in this sweep
+
+        PageRankGSSweep(SparseMatrixCSC matrix_, double w_[], double x_[], double diff_[]) {
+            matrix = matrix_;
+            w = w_;
+            x = x_;
+            diff = diff_;
+        }
+
+        // Update the destinations from...to-1
+        void sweep(int from, int to) {
+            int index[] = matrix.index;
+            int srcs[] = matrix.sources;
+            for (int dst = from; dst < to; dst++) {
+                double s = 0.;
+                for (int j = index[dst]; j < index[dst + 1]; j++) {
+                    int src = srcs[j];
+                    s += w[src] * x[src];
+                }
+                s += teleport;
+                diff[dst] = Math.abs(s - x[dst]);
+                x[dst] = s;
+            }
+        }
+    }
+
+    // Pull kernel for a batch of K PageRank vectors, stored vertex by vertex:
+    // the K values of vertex v are at v*K ... v*K+K-1. Every edge is read
+    // once per iteration and adds the K contiguous contributions of its
+    // source to the K contiguous values of its destination.
+    private static class PageRankBatchRelax implements Relax {
+        int K;
+        double c[];   // contributions d * x / outdeg, K per vertex
+        double y[];
+
+        PageRankBatchRelax(int K_, double c_[], double y_[]) {
+            K = K_;
+            c = c_;
+            y = y_;
+        }
+
+        public void relax(int src, int dst) {
+            int s = src * K;
+            int t = dst * K;
+            for (int k = 0; k < K; k++)
+                y[t + k] += c[s + k];
+        }
+
+        public void relaxIn(int dst, int srcs[], int from, int to) {
+            int t = dst * K;
+            for (int j = from; j < to; j++) {
+                int s = srcs[j] * K;
+                for (int k = 0; k < K; k++)
+                    y[t + k] += c[s + k];
+            }
+        }
+    }
+
+    // Residual push: scatters the change p[src] of a frontier vertex along
+    // its outgoing edges into the residuals r of its neighbours
+    private static class PageRankDeltaRelax implements FrontierRelax {
+        private static final VarHandle RESIDUAL = MethodHandles.arrayElementVarHandle(double[].class);
+        double w[];   // d / outdeg[s], or 0 for vertices without edges
+        double p[];   // change being propagated
+        double r[];   // residual not propagated yet
+
+        PageRankDeltaRelax(double w_[], double p_[], double r_[]) {
+            w = w_;
+            p = p_;
+            r = r_;
+        }
+
+        public boolean update(int src, int dst) {
+            r[dst] += w[src] * p[src];
+            return false;
+        }
+
+        public boolean updateAtomic(int src, int dst) {
+            RESIDUAL.getAndAdd(r, dst, w[src] * p[src]);
+            return false;
+        }
     }
 
 
@@ -43,6 +205,11 @@ public class PageRank {
     iteration t+1 by adding the new estimates (divided by out-degree) to those PageRank values at iteration t.
     */
     public static double[] compute(SparseMatrix matrix) {
+        return compute(matrix, ParallelContextHolder.get());
+    }
+
+    // Compute PageRank with the threads of context
+    public static double[] compute(SparseMatrix matrix, ParallelContext context) {
         long tm_start = System.nanoTime();
 
         final int n = matrix.getNumVertices();
@@ -62,10 +229,12 @@ public class PageRank {
 
         The new PageRank estimates in y/newpr are initialised to 0
          */
-        for (int i = 0; i < n; ++i) {
-            x[i] = v[i] = 1.0 / (double) n;
-            y[i] = 0;
-        }
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                x[i] = v[i] = 1.0 / (double) n;
+                y[i] = 0;
+            }
+        });
 
         // calculates the outdegree value for every single vertex in the graph
         int outdeg[] = new int[n];
@@ -75,14 +244,26 @@ public class PageRank {
         System.err.println("Initialisation: " + tm_init + " seconds");
         tm_start = System.nanoTime();
 
-        PageRankRelax PRrelax = new PageRankRelax(outdeg, d, x, y);
-        ParallelContext context = ParallelContextHolder.get();
+        // Matrices in CSC layout use the pull kernel, others push along the
+        // outgoing edges
+        Relax PRrelax;
+        PageRankPullRelax pull = null;
+        if (matrix.groupsByDestination()) {
+            pull = new PageRankPullRelax(outdeg, d, x, y);
+            PRrelax = pull;
+        } else {
+            PRrelax = new PageRankRelax(outdeg, d, x, y);
+        }
 
+        // The dense loops below run in parallel through vertexmap and
+        // vertexsum, one range of vertices per thread
         while (iter < max_iter && delta > tol) {
             // Power iteration step.
             // 1. Transfering weight over out-going links (summation part)
 
             long edgemap_start = System.nanoTime();
+            if (pull != null)
+                context.vertexmap(n, pull::contributions);
             context.edgemap(matrix, PRrelax);
             double edgemap_time = (double) (System.nanoTime() - edgemap_start) * 1e-9;
 
@@ -94,10 +275,12 @@ public class PageRank {
             the sum does add up to 1.
             */
             // 2. Constants (1-d)v[i] added in separately.
-            double w = 1.0 - sum(y, n); // ensure y[] will sum to 1
+            final double w1 = 1.0 - sum(context, y, n); // ensure y[] will sum to 1
             // System.out.println( "scale with w=" +  w + " add " + (w*v[0]) );
-            for (int i = 0; i < n; ++i)
-                y[i] += w * v[i];
+            context.vertexmap(n, (from, to) -> {
+                for (int i = from; i < to; ++i)
+                    y[i] += w1 * v[i];
+            });
 
 	    /*
 	    for( int i=0; i < n; ++i )
@@ -105,15 +288,17 @@ public class PageRank {
 	    */
 
             // Calculate residual error
-            delta = normdiff(x, y, n);
+            delta = normdiff(context, x, y, n);
             iter++;
 
             // Rescale to unit length and swap x[] and y[]
-            w = 1.0 / sum(y, n);
-            for (int i = 0; i < n; ++i) {
-                x[i] = y[i] * w;
-                y[i] = 0.;
-            }
+            final double w2 = 1.0 / sum(context, y, n);
+            context.vertexmap(n, (from, to) -> {
+                for (int i = from; i < to; ++i) {
+                    x[i] = y[i] * w2;
+                    y[i] = 0.;
+                }
+            });
 
 	    /*
 	    for( int i=0; i < n; ++i )
@@ -123,7 +308,7 @@ public class PageRank {
             double tm_step = (double) (System.nanoTime() - tm_start) * 1e-9;
             if (verbose)
                 System.err.println("iteration " + iter + ": residual error="
-                        + delta + " xnorm=" + sum(x, n)
+                        + delta + " xnorm=" + sum(context, x, n)
                         + " time=" + tm_step);
             tm_start = System.nanoTime();
         }
@@ -139,8 +324,628 @@ public class PageRank {
         return x;
     }
 
+    // Compute PageRank by Gauss-Seidel iteration: every sweep updates x in
+    // place, so values computed earlier in a sweep are used in the same
+    // sweep, which usually takes fewer sweeps than the power iteration
+    // above to reach the same tolerance. The weight that does not flow along
+    // edges is worked out at the start of every sweep, and x is rescaled to
+    // sum to 1 at the end of it, as above. Matrices not in CSC layout are
+    // converted first.
+    public static double[] computeGaussSeidel(SparseMatrix matrix, ParallelContext context) {
+        final SparseMatrixCSC csc;
+        if (matrix instanceof SparseMatrixCSC) {
+            csc = (SparseMatrixCSC) matrix;
+        } else {
+            try {
+                csc = GraphConverter.toCSC(matrix, context.getNumThreads());
+            } catch (Exception e) {
+                System.err.println("Exception: " + e);
+                return compute(matrix, context);
+            }
+        }
+
+        long tm_start = System.nanoTime();
+
+        final int n = matrix.getNumVertices();
+        double x[] = new double[n];
+        double diff[] = new double[n];
+        double w[] = new double[n];
+        final double d = 0.85; // Leave this value as is
+        final double tol = 1e-7; // Leave this value as is
+        final int max_iter = 100;
+        final boolean verbose = true;
+        double delta = 2;
+        int iter = 0;
+
+        int outdeg[] = new int[n];
+        matrix.calculateOutDegree(outdeg);
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                x[i] = 1.0 / (double) n;
+                w[i] = outdeg[i] == 0 ? 0 : d / (double) outdeg[i];
+            }
+        });
+
+        double tm_init = (double) (System.nanoTime() - tm_start) * 1e-9;
+        System.err.println("Initialisation: " + tm_init + " seconds");
+        tm_start = System.nanoTime();
+
+        PageRankGSSweep GSsweep = new PageRankGSSweep(csc, w, x, diff);
+        final int num_parts = context.getNumThreads();
+        final int bounds[] = csc.getPartitions(num_parts);
+
+        while (iter < max_iter && delta > tol) {
+            // 1. The weight of vertices without outgoing edges and the
+            //    share 1-d of the others are spread over all vertices
+            double linked = context.vertexsum(n, (from, to) -> linkedsum(x, outdeg, from, to));
+            GSsweep.teleport = (1.0 - d * linked) * (1.0 / (double) n);
+
+            // 2. Sweep over all vertices, updating x in place
+            context.parallelFor(num_parts, p -> GSsweep.sweep(bounds[p], bounds[p + 1]));
+
+            // Calculate residual error
+            delta = sum(context, diff, n);
+            iter++;
+
+            // Rescale to unit length
+            final double w2 = 1.0 / sum(context, x, n);
+            context.vertexmap(n, (from, to) -> {
+                for (int i = from; i < to; ++i)
+                    x[i] *= w2;
+            });
+
+            double tm_step = (double) (System.nanoTime() - tm_start) * 1e-9;
+            if (verbose)
+                System.err.println("iteration " + iter + ": residual error="
+                        + delta + " xnorm=" + sum(context, x, n)
+                        + " time=" + tm_step);
+            tm_start = System.nanoTime();
+        }
+
+        if (delta > tol)
+            System.err.println("Error: solution has not converged.");
+
+        return x;
+    }
+
+    // Compute PageRank by power iteration with quadratic extrapolation
+    // (Kamvar et al., 2003). The error of the power iteration shrinks by
+    // about d every step, and is dominated by the few eigenvectors of M
+    // with the largest eigenvalues after d. Every period steps, the last
+    // four iterates are used to estimate and subtract the error along the
+    // second and third eigenvectors, by a least squares fit of a quadratic,
+    // which takes a handful of dense passes but no edge traversals. The
+    // steps in between are the power iteration as in compute, and the loop
+    // only stops on a power step, so the result meets the same tolerance.
+    public static double[] computeExtrapolated(SparseMatrix matrix, ParallelContext context) {
+        long tm_start = System.nanoTime();
+
+        final int n = matrix.getNumVertices();
+        double x[] = new double[n];
+        double y[] = new double[n];
+        double past[][] = new double[3][n]; // x three, two and one steps before an extrapolation
+        final double d = 0.85; // Leave this value as is
+        final double tol = 1e-7; // Leave this value as is
+        final int max_iter = 100;
+        final int period = 5;
+        final boolean verbose = true;
+        double delta = 2;
+        int iter = 0;
+
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                x[i] = 1.0 / (double) n;
+                y[i] = 0;
+            }
+        });
+
+        int outdeg[] = new int[n];
+        matrix.calculateOutDegree(outdeg);
+
+        double tm_init = (double) (System.nanoTime() - tm_start) * 1e-9;
+        System.err.println("Initialisation: " + tm_init + " seconds");
+        tm_start = System.nanoTime();
+
+        Relax PRrelax;
+        PageRankPullRelax pull = null;
+        if (matrix.groupsByDestination()) {
+            pull = new PageRankPullRelax(outdeg, d, x, y);
+            PRrelax = pull;
+        } else {
+            PRrelax = new PageRankRelax(outdeg, d, x, y);
+        }
+
+        while (iter < max_iter && delta > tol) {
+            // 1. Power iteration step, as in compute
+            if (pull != null)
+                context.vertexmap(n, pull::contributions);
+            context.edgemap(matrix, PRrelax);
+
+            final double w1 = (1.0 - sum(context, y, n)) * (1.0 / (double) n);
+            context.vertexmap(n, (from, to) -> {
+                for (int i = from; i < to; ++i)
+                    y[i] += w1;
+            });
+
+            delta = normdiff(context, x, y, n);
+            iter++;
+
+            final double w2 = 1.0 / sum(context, y, n);
+            context.vertexmap(n, (from, to) -> {
+                for (int i = from; i < to; ++i) {
+                    x[i] = y[i] * w2;
+                    y[i] = 0.;
+                }
+            });
+
+            // 2. Keep the iterates that the next extrapolation needs, or
+            //    extrapolate. The result is always the output of a power
+            //    step, so there is no extrapolation after the last one.
+            boolean extrapolated = false;
+            int phase = iter % period;
+            if (phase >= period - 3) {
+                double[] keep = past[phase - (period - 3)];
+                context.vertexmap(n, (from, to) -> System.arraycopy(x, from, keep, from, to - from));
+            } else if (phase == 0 && delta > tol && iter < max_iter) {
+                extrapolated = extrapolate(context, past, x, n);
+            }
+
+            double tm_step = (double) (System.nanoTime() - tm_start) * 1e-9;
+            if (verbose)
+                System.err.println("iteration " + iter + ": residual error="
+                        + delta + " xnorm=" + sum(context, x, n)
+                        + (extrapolated ? " extrapolated" : "")
+                        + " time=" + tm_step);
+            tm_start = System.nanoTime();
+        }
+
+        if (delta > tol)
+            System.err.println("Error: solution has not converged.");
+
+        return x;
+    }
+
+    // Quadratic extrapolation of the iterates past[0], past[1], past[2]
+    // and x, replacing x. With y1, y2, y3 the differences of the last three
+    // to past[0], the coefficients g1, g2 minimise |g1 y1 + g2 y2 + y3|,
+    // from the 2x2 normal equations. Returns false, leaving x as it is, if
+    // y1 and y2 are too close to parallel to fit.
+    private static boolean extrapolate(ParallelContext context, double[][] past, double[] x, int n) {
+        final double[] x0 = past[0], x1 = past[1], x2 = past[2];
+        double a11 = context.vertexsum(n, (from, to) -> diffdot(x0, x1, x1, from, to));
+        double a12 = context.vertexsum(n, (from, to) -> diffdot(x0, x1, x2, from, to));
+        double a22 = context.vertexsum(n, (from, to) -> diffdot(x0, x2, x2, from, to));
+        double b1 = context.vertexsum(n, (from, to) -> diffdot(x0, x1, x, from, to));
+        double b2 = context.vertexsum(n, (from, to) -> diffdot(x0, x2, x, from, to));
+        double det = a11 * a22 - a12 * a12;
+        if (!(det > 1e-12 * a11 * a22))
+            return false;
+        double g1 = (-b1 * a22 + b2 * a12) / det;
+        double g2 = (-b2 * a11 + b1 * a12) / det;
+
+        final double c0 = g1 + g2 + 1., c1 = g2 + 1.;
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i)
+                x[i] = c0 * x1[i] + c1 * x2[i] + x[i];
+        });
+        final double w = 1.0 / sum(context, x, n);
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i)
+                x[i] *= w;
+        });
+        return true;
+    }
+
+    // Sum of (a[i] - base[i]) * (b[i] - base[i]) over from...to-1
+    static private double diffdot(double[] base, double[] a, double[] b, int from, int to) {
+        double s = 0.;
+        for (int i = from; i < to; ++i)
+            s += (a[i] - base[i]) * (b[i] - base[i]);
+        return s;
+    }
+
+    // Compute PageRank by residual push. PageRank solves x = M x + b, where
+    // b = (1-d)/n and M moves weight d along the edges, and spreads the
+    // weight d of vertices without outgoing edges over all vertices.
+    // Every vertex holds a residual r of change that has not been propagated
+    // yet. The first step starts from x = 1/n, as the power iteration does,
+    // which leaves the residual M x + b - x. Its positive and negative parts
+    // cancel as they propagate, much as the errors of the power iteration
+    // do once it rescales x. Every step after that, the vertices
+    // whose residual exceeds tol/n add it to x and scatter M times it to the
+    // residuals of their neighbours; the others keep accumulating it. The
+    // scattering is a frontier edgemap over the active vertices only, so
+    // vertices that have settled cost no edge traversals. It stops when no
+    // vertex holds more than tol/n, i.e. the residual left is below tol in
+    // total, and x is rescaled to sum to 1.
+    public static double[] computeDelta(SparseMatrix matrix, ParallelContext context) {
+        // pushing needs the outgoing edges; pull large frontiers if the
+        // matrix has the incoming edges as well
+        SparseMatrix out = pushMatrix(matrix, context);
+        if (out == null)
+            return compute(matrix, context);
+
+        long tm_start = System.nanoTime();
+
+        final int n = matrix.getNumVertices();
+        final double d = 0.85; // Leave this value as is
+        double x[] = new double[n];
+        double r[] = new double[n];
+        double w[] = new double[n];
+
+        int outdeg[] = new int[n];
+        matrix.calculateOutDegree(outdeg);
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                r[i] = 1.0 / (double) n;
+                w[i] = outdeg[i] == 0 ? 0 : d / (double) outdeg[i];
+            }
+        });
+
+        double tm_init = (double) (System.nanoTime() - tm_start) * 1e-9;
+        System.err.println("Initialisation: " + tm_init + " seconds");
+
+        // after moving the initial x = 1/n into x, add b - x to r
+        residualPush(out, matrix.groupsByDestination() ? matrix : null, x, r, w, outdeg,
+                -d / (double) n, context);
+        return x;
+    }
+
+    // Update the PageRank vector previous of a graph after the changes in
+    // batch, where matrix is the graph with the changes applied (see
+    // GraphConverter.update). The residual of previous in the old graph is
+    // taken to be 0, so the residual in the new graph is the difference the
+    // changes make to M times previous. It is only non-zero around the
+    // sources of changed edges: their out-neighbours see the weight spread
+    // over a different number of edges, and the destinations of inserted or
+    // deleted edges gain or lose an edge. Residual push from there on only
+    // visits the edges of the vertices that the change reaches. The batch
+    // must only name vertices of matrix, and previous must hold a value for
+    // every vertex.
+    public static double[] computeIncremental(SparseMatrix matrix, double[] previous, EdgeBatch batch,
+                                              ParallelContext context) {
+        if (previous.length != matrix.getNumVertices())
+            throw new IllegalArgumentException("previous PageRank vector holds " + previous.length
+                    + " values for a graph with " + matrix.getNumVertices() + " vertices");
+        try {
+            batch.check(matrix.getNumVertices());
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+
+        SparseMatrix out = pushMatrix(matrix, context);
+        if (out == null)
+            return compute(matrix, context);
+
+        long tm_start = System.nanoTime();
+
+        final int n = matrix.getNumVertices();
+        final double d = 0.85; // Leave this value as is
+        double x[] = previous.clone();
+        double r[] = new double[n];
+        double w[] = new double[n];
+
+        int outdeg[] = new int[n];
+        matrix.calculateOutDegree(outdeg);
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i)
+                w[i] = outdeg[i] == 0 ? 0 : d / (double) outdeg[i];
+        });
+
+        // out-degrees before the changes, and the sources that changed
+        int olddeg[] = outdeg.clone();
+        boolean changed[] = new boolean[n];
+        for (int i = 0; i < batch.getNumInsertions(); i++) {
+            olddeg[batch.insert_src[i]]--;
+            changed[batch.insert_src[i]] = true;
+        }
+        for (int i = 0; i < batch.getNumDeletions(); i++) {
+            olddeg[batch.delete_src[i]]++;
+            changed[batch.delete_src[i]] = true;
+        }
+        for (int s = 0; s < n; s++) {
+            if (olddeg[s] < 0)
+                throw new IllegalArgumentException("vertex " + s
+                        + " has fewer edges than the batch inserts -- is the batch applied to matrix?");
+        }
+
+        // every edge of a changed source now carries w[s] * x[s] instead of
+        // the old weight; the inserted edges carried nothing before, and
+        // the deleted edges carry nothing now
+        double oldw[] = new double[n];
+        for (int s = 0; s < n; s++) {
+            if (changed[s] && olddeg[s] != 0)
+                oldw[s] = d / (double) olddeg[s] * x[s];
+        }
+        for (int i = 0; i < batch.getNumInsertions(); i++)
+            r[batch.insert_dst[i]] += oldw[batch.insert_src[i]];
+        for (int i = 0; i < batch.getNumDeletions(); i++)
+            r[batch.delete_dst[i]] -= oldw[batch.delete_src[i]];
+
+        double uniform = 0.;
+        for (int s = 0; s < n; s++) {
+            if (!changed[s])
+                continue;
+            final double change = w[s] * x[s] - oldw[s];
+            out.ranged_edgemap((src, dst) -> r[dst] += change, s, s);
+            // vertices without edges spread their weight over all vertices
+            if (olddeg[s] == 0)
+                uniform -= d * x[s] / (double) n;
+            if (outdeg[s] == 0)
+                uniform += d * x[s] / (double) n;
+        }
+
+        double tm_init = (double) (System.nanoTime() - tm_start) * 1e-9;
+        System.err.println("Initialisation: " + tm_init + " seconds");
+
+        residualPush(out, matrix.groupsByDestination() ? matrix : null, x, r, w, outdeg, uniform, context);
+        return x;
+    }
+
+    // The matrix with the outgoing edges, converted to CSR if needed, or
+    // null if it cannot be converted
+    private static SparseMatrix pushMatrix(SparseMatrix matrix, ParallelContext context) {
+        if (matrix.groupsBySource())
+            return matrix;
+        try {
+            return GraphConverter.toCSR(matrix, context.getNumThreads());
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return null;
+        }
+    }
+
+    // Residual push until no vertex holds more than tol/n, moving the
+    // residual r into x (see computeDelta). The edges are pushed in out and,
+    // for large frontiers, pulled in in if not null. After the first step,
+    // offset is added to every residual. Finally x is rescaled to sum to 1.
+    private static void residualPush(SparseMatrix out, SparseMatrix in, double x[], double r[], double w[],
+                                     int outdeg[], double offset, ParallelContext context) {
+        long tm_start = System.nanoTime();
+
+        final int n = x.length;
+        double p[] = new double[n];
+        final double d = 0.85; // Leave this value as is
+        final double tol = 1e-7; // Leave this value as is
+        final double eps = tol / n; // residual a vertex may hold back
+        final int max_iter = 1000;
+        final boolean verbose = true;
+        int iter = 0;
+        long edges = 0;
+
+        PageRankDeltaRelax deltaRelax = new PageRankDeltaRelax(w, p, r);
+
+        while (iter < max_iter) {
+            // 1. Move the residual of the vertices above eps into x
+            long[] active = VertexSubset.newBitmap(n);
+            context.vertexmap(n, (from, to) -> {
+                for (int i = from; i < to; ++i) {
+                    if (Math.abs(r[i]) > eps) {
+                        x[i] += r[i];
+                        p[i] = r[i];
+                        r[i] = 0.;
+                        VertexSubset.set(active, i);
+                    } else {
+                        p[i] = 0.;
+                    }
+                }
+            });
+            int size = (int) context.vertexsum(active.length, (from, to) -> {
+                long c = 0;
+                for (int i = from; i < to; ++i)
+                    c += Long.bitCount(active[i]);
+                return c;
+            });
+            if (size == 0 && (iter > 0 || offset == 0.))
+                break;
+            VertexSubset frontier = new VertexSubset(n, active, size);
+            edges += (long) context.vertexsum(n, (from, to) -> {
+                long e = 0;
+                for (int i = from; i < to; ++i) {
+                    if (p[i] != 0.)
+                        e += outdeg[i];
+                }
+                return e;
+            });
+
+            // 2. Scatter along the edges of the active vertices, and the
+            //    change of active vertices without edges to all vertices
+            final double dangling = context.vertexsum(n, (from, to) -> danglingsum(p, outdeg, from, to));
+            context.edgemap(out, in, frontier, deltaRelax);
+            final double g = d * dangling / (double) n + (iter == 0 ? offset : 0.);
+            if (g != 0.) {
+                context.vertexmap(n, (from, to) -> {
+                    for (int i = from; i < to; ++i)
+                        r[i] += g;
+                });
+            }
+            iter++;
+
+            double tm_step = (double) (System.nanoTime() - tm_start) * 1e-9;
+            if (verbose)
+                System.err.println("iteration " + iter + ": residual error="
+                        + context.vertexsum(n, (from, to) -> abssum(r, from, to))
+                        + " active=" + size + " edges=" + edges
+                        + " time=" + tm_step);
+            tm_start = System.nanoTime();
+        }
+
+        if (iter == max_iter)
+            System.err.println("Error: solution has not converged.");
+
+        // Rescale to unit length
+        final double w2 = 1.0 / sum(context, x, n);
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i)
+                x[i] *= w2;
+        });
+    }
+
+    // Compute personalized PageRank for a batch of seed sets: vector k
+    // teleports to the vertices in seeds[k] only, with equal weight. Every
+    // seed set must hold at least one vertex, and only vertices of matrix.
+    public static double[][] computePersonalized(SparseMatrix matrix, int[][] seeds, ParallelContext context) {
+        final int n = matrix.getNumVertices();
+        double[][] teleport = new double[seeds.length][n];
+        for (int k = 0; k < seeds.length; k++) {
+            if (seeds[k] == null || seeds[k].length == 0)
+                throw new IllegalArgumentException("seed set " + k + " is empty");
+            for (int s : seeds[k]) {
+                if (s < 0 || s >= n)
+                    throw new IllegalArgumentException("seed set " + k + " holds vertex " + s
+                            + " of a graph with " + n + " vertices");
+                teleport[k][s] += 1.0 / (double) seeds[k].length;
+            }
+        }
+        return computeBatch(matrix, teleport, context);
+    }
+
+    // Compute PageRank for K teleport vectors at once, each of which is
+    // scaled to sum to 1. Every vector follows the power iteration of
+    // compute, starting from its teleport vector, with its own constant
+    // weight and scaling; the iteration ends once every vector meets the
+    // tolerance. The values are held as one n x K block, so every sweep
+    // reads the graph once for the whole batch (see PageRankBatchRelax).
+    // Matrices not in CSC layout are converted first; if that fails, the
+    // sweeps visit the edges of matrix on one thread. Every teleport vector
+    // must hold n values that are not negative and not all 0. Returns the K
+    // vectors.
+    public static double[][] computeBatch(SparseMatrix matrix, double[][] teleport, ParallelContext context) {
+        final int n = matrix.getNumVertices();
+        final int K = teleport.length;
+        for (int k = 0; k < K; k++) {
+            if (teleport[k] == null || teleport[k].length != n)
+                throw new IllegalArgumentException("teleport vector " + k + " does not hold " + n + " values");
+            double total = 0.;
+            for (int i = 0; i < n; i++) {
+                if (!(teleport[k][i] >= 0.))
+                    throw new IllegalArgumentException("teleport vector " + k + " has value "
+                            + teleport[k][i] + " at vertex " + i);
+                total += teleport[k][i];
+            }
+            if (!(total > 0.) || Double.isInfinite(total))
+                throw new IllegalArgumentException("teleport vector " + k + " cannot be scaled to sum to 1");
+        }
+
+        // the n x K block does not fit in an array: one vector at a time
+        if ((long) n * K > Integer.MAX_VALUE - 8) {
+            double[][] result = new double[K][];
+            for (int k = 0; k < K; k++)
+                result[k] = computeBatch(matrix, new double[][]{teleport[k]}, context)[0];
+            return result;
+        }
+        final int length = n * K;
+
+        if (!matrix.groupsByDestination()) {
+            try {
+                matrix = GraphConverter.toCSC(matrix, context.getNumThreads());
+            } catch (Exception e) {
+                System.err.println("Exception: " + e);
+            }
+        }
+
+        long tm_start = System.nanoTime();
+        double x[] = new double[length];
+        double y[] = new double[length];
+        double c[] = new double[length];
+        double v[] = new double[length];
+        final double d = 0.85; // Leave this value as is
+        final double tol = 1e-7; // Leave this value as is
+        final int max_iter = 100;
+        final boolean verbose = true;
+        double delta = 2;
+        int iter = 0;
+
+        double scale[] = new double[K];
+        for (int k = 0; k < K; k++) {
+            scale[k] = 1.0 / sum(context, teleport[k], n);
+        }
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                for (int k = 0; k < K; k++)
+                    x[i * K + k] = v[i * K + k] = teleport[k][i] * scale[k];
+            }
+        });
+
+        int outdeg[] = new int[n];
+        matrix.calculateOutDegree(outdeg);
+
+        double tm_init = (double) (System.nanoTime() - tm_start) * 1e-9;
+        System.err.println("Initialisation: " + tm_init + " seconds");
+        tm_start = System.nanoTime();
+
+        PageRankBatchRelax batchRelax = new PageRankBatchRelax(K, c, y);
+
+        while (iter < max_iter && delta > tol) {
+            // 1. Transfer weight over the edges, for all vectors at once
+            context.vertexmap(n, (from, to) -> {
+                for (int s = from; s < to; s++) {
+                    double w = outdeg[s] == 0 ? 0 : d / (double) outdeg[s];
+                    for (int k = 0; k < K; k++)
+                        c[s * K + k] = w * x[s * K + k];
+                }
+            });
+            context.edgemap(matrix, batchRelax);
+
+            // 2. Constant weight of every vector, along its teleport vector
+            double ysum[] = columnsum(context, null, y, n, K);
+            double w1[] = new double[K];
+            for (int k = 0; k < K; k++)
+                w1[k] = 1.0 - ysum[k];
+            context.vertexmap(n, (from, to) -> {
+                for (int i = from; i < to; ++i) {
+                    for (int k = 0; k < K; k++)
+                        y[i * K + k] += w1[k] * v[i * K + k];
+                }
+            });
+
+            // Calculate residual error of the vector furthest from converged
+            double diff[] = columnsum(context, x, y, n, K);
+            delta = 0;
+            for (int k = 0; k < K; k++)
+                delta = Math.max(delta, diff[k]);
+            iter++;
+
+            // Rescale every vector to unit length and swap x[] and y[]
+            ysum = columnsum(context, null, y, n, K);
+            double w2[] = new double[K];
+            for (int k = 0; k < K; k++)
+                w2[k] = 1.0 / ysum[k];
+            context.vertexmap(n, (from, to) -> {
+                for (int i = from; i < to; ++i) {
+                    for (int k = 0; k < K; k++) {
+                        x[i * K + k] = y[i * K + k] * w2[k];
+                        y[i * K + k] = 0.;
+                    }
+                }
+            });
+
+            double tm_step = (double) (System.nanoTime() - tm_start) * 1e-9;
+            if (verbose)
+                System.err.println("iteration " + iter + ": residual error="
+                        + delta + " vectors=" + K + " time=" + tm_step);
+            tm_start = System.nanoTime();
+        }
+
+        if (delta > tol)
+            System.err.println("Error: solution has not converged.");
+
+        double result[][] = new double[K][n];
+        context.vertexmap(n, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                for (int k = 0; k < K; k++)
+                    result[k][i] = x[i * K + k];
+            }
+        });
+        return result;
+    }
+
     // only used by Validator class
     public static void validate(SparseMatrix matrix, double[] x) {
+        validate(matrix, x, ParallelContextHolder.get());
+    }
+
+    public static void validate(SparseMatrix matrix, double[] x, ParallelContext context) {
         long tm_start = System.nanoTime();
 
         final int n = matrix.getNumVertices();
@@ -162,18 +967,17 @@ public class PageRank {
         tm_start = System.nanoTime();
 
         PageRankRelax PRrelax = new PageRankRelax(outdeg, d, x, y);
-        ParallelContext context = ParallelContextHolder.get();
 
         // Perform one step of the power iteration
         context.edgemap(matrix, PRrelax);
 
         // Constants (1-d)v[i] added in separately.
-        double w = 1.0 - sum(y, n);
+        double w = 1.0 - sum(context, y, n);
         for (int i = 0; i < n; ++i)
             y[i] += w * v[i];
 
         // Calculate residual error
-        double delta = normdiff(x, y, n);
+        double delta = normdiff(context, x, y, n);
 
         System.err.println("delta: " + delta);
 
@@ -189,10 +993,56 @@ public class PageRank {
         }
     }
 
-    static private double sum(double[] a, int n) {
+    // Sum over all vertices, in parallel (see ParallelContext.vertexsum)
+    static private double sum(ParallelContext context, double[] a, int n) {
+        return context.vertexsum(n, (from, to) -> sum(a, from, to));
+    }
+
+    static private double normdiff(ParallelContext context, double[] a, double[] b, int n) {
+        return context.vertexsum(n, (from, to) -> normdiff(a, b, from, to));
+    }
+
+    // Sum every column of the n x K block b, or of |b - a| if a is given.
+    // The columns are summed over the same ranges as vertexsum, in the
+    // same order, so a single column gives the same result as sum or
+    // normdiff.
+    static private double[] columnsum(ParallelContext context, double[] a, double[] b, int n, int K) {
+        int num_parts = context.getNumThreads();
+        double[][] partial = new double[num_parts][K];
+        context.parallelFor(num_parts, p -> {
+            int from = (int) ((long) n * p / num_parts);
+            int to = (int) ((long) n * (p + 1) / num_parts);
+            double[] d = partial[p];
+            double[] err = new double[K];
+            for (int i = from; i < to; ++i) {
+                for (int k = 0; k < K; k++) {
+                    double tmp = d[k];
+                    double y = (a == null ? b[i * K + k] : Math.abs(b[i * K + k] - a[i * K + k])) + err[k];
+                    d[k] = tmp + y;
+                    err[k] = tmp - d[k];
+                    err[k] += y;
+                }
+            }
+        });
+
+        double[] d = new double[K];
+        double[] err = new double[K];
+        for (int p = 0; p < num_parts; ++p) {
+            for (int k = 0; k < K; k++) {
+                double tmp = d[k];
+                double y = partial[p][k] + err[k];
+                d[k] = tmp + y;
+                err[k] = tmp - d[k];
+                err[k] += y;
+            }
+        }
+        return d;
+    }
+
+    static private double sum(double[] a, int from, int to) {
         double d = 0.;
         double err = 0.;
-        for (int i = 0; i < n; ++i) {
+        for (int i = from; i < to; ++i) {
             // The code below achieves
             // d += a[i];
             // but does so with high accuracy
@@ -205,10 +1055,43 @@ public class PageRank {
         return d;
     }
 
-    static private double normdiff(double[] a, double[] b, int n) {
+    static private double abssum(double[] a, int from, int to) {
+        double d = 0.;
+        for (int i = from; i < to; ++i)
+            d += Math.abs(a[i]);
+        return d;
+    }
+
+    // Sum of a[i] over the vertices i without outgoing edges
+    static private double danglingsum(double[] a, int[] outdeg, int from, int to) {
+        double d = 0.;
+        for (int i = from; i < to; ++i) {
+            if (outdeg[i] == 0)
+                d += a[i];
+        }
+        return d;
+    }
+
+    // Sum of a[i] over the vertices i with outgoing edges
+    static private double linkedsum(double[] a, int[] outdeg, int from, int to) {
+        double d = 0.;
+        double err = 0.;
+        for (int i = from; i < to; ++i) {
+            if (outdeg[i] == 0)
+                continue;
+            double tmp = d;
+            double y = a[i] + err;
+            d = tmp + y;
+            err = tmp - d;
+            err += y;
+        }
+        return d;
+    }
+
+    static private double normdiff(double[] a, double[] b, int from, int to) {
         double d = 0.;
         double err = 0.;
-        for (int i = 0; i < n; ++i) {
+        for (int i = from; i < to; ++i) {
             // The code below achieves
             // d += Math.abs(b[i] - a[i]);
             // but does so with high accuracy
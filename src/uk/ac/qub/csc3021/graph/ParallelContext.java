@@ -1,5 +1,16 @@
 package uk.ac.qub.csc3021.graph;
 
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// The threads that run the edgemaps and vertex loops of a computation.
+// The algorithms take their context as a parameter, so computations with
+// contexts of their own can run at the same time on one loaded matrix.
+//
+// A context serves one computation at a time: it keeps scratch state from
+// one edgemap to the next (the per-thread accumulator and the bitmap that
+// removes duplicates from a push), which two computations running at once
+// would overwrite. Concurrent computations each need their own context.
 public abstract class ParallelContext {
     private int num_threads;
 
@@ -11,6 +22,24 @@ public abstract class ParallelContext {
         return num_threads;
     }
 
+    // Sums the updates of edgemaps on matrices that visit edges by source
+    private boolean atomic_accumulation = false;
+    private EdgeAccumulator accumulator = null;
+
+    // Select whether edgemaps on CSR and COO matrices accumulate into one
+    // shared AtomicDoubleArray rather than per-thread arrays (the default),
+    // which costs less memory but more time
+    public void setAtomicAccumulation(boolean atomic) {
+        atomic_accumulation = atomic;
+        accumulator = null;
+    }
+
+    EdgeAccumulator getAccumulator() {
+        if (accumulator == null)
+            accumulator = new EdgeAccumulator(atomic_accumulation);
+        return accumulator;
+    }
+
     // Terminate all threads
     public abstract void terminate();
 
@@ -18,4 +47,225 @@ public abstract class ParallelContext {
     // You will specialise this class to introduce concurrency in Question 2
     // and will update this class in subsequent questions.
     public abstract void edgemap(SparseMatrix matrix, Relax relax);
+
+    // Frontiers with more than 1/DENSE_THRESHOLD of the edges are pulled
+    static final int DENSE_THRESHOLD = 20;
+
+    // Bitmap that removes duplicates from the output of a push, kept
+    // cleared between edgemaps
+    private long[] seen = null;
+
+    // Apply relax to the outgoing edges of the vertices in frontier, and
+    // return the subset of destinations for which it returned true. As in
+    // Ligra, a small frontier is pushed: the outgoing edges of its members
+    // are visited in out, which must group the edges by source (CSR), and
+    // destinations are updated atomically. A large frontier is pulled: every
+    // destination visits its incoming edges in in, which must group the
+    // edges by destination (CSC), and picks those from frontier members, so
+    // no atomics are needed. The frontier is large when its members and
+    // their edges exceed 1/DENSE_THRESHOLD of the edges. Either matrix may
+    // be null, then the other direction is always used.
+    //
+    // A push reads the sparse form of the frontier and returns a sparse
+    // subset, a pull reads the dense form and returns a dense subset (see
+    // VertexSubset), so the form only changes when the direction does.
+    public VertexSubset edgemap(SparseMatrix out, SparseMatrix in, VertexSubset frontier, FrontierRelax relax) {
+        if (out != null && !out.groupsBySource())
+            throw new IllegalArgumentException("push matrix does not group edges by source");
+        if (in != null && !in.groupsByDestination())
+            throw new IllegalArgumentException("pull matrix does not group edges by destination");
+
+        if (in != null && (out == null || isDense(out, frontier)))
+            return pull(in, frontier, relax);
+        return push(out, frontier, relax);
+    }
+
+    private VertexSubset pull(SparseMatrix in, VertexSubset frontier, FrontierRelax relax) {
+        int n = frontier.getNumVertices();
+        frontier.toDense(this);
+        long[] next = VertexSubset.newBitmap(n);
+        edgemap(in, new PullRelax(frontier, next, relax));
+        int size = (int) vertexsum(next.length, (from, to) -> {
+            long c = 0;
+            for (int w = from; w < to; w++)
+                c += Long.bitCount(next[w]);
+            return c;
+        });
+        return new VertexSubset(n, next, size);
+    }
+
+    private VertexSubset push(SparseMatrix out, VertexSubset frontier, FrontierRelax relax) {
+        int n = frontier.getNumVertices();
+        int[] active = frontier.toSparse(this);
+
+        // take the bitmap, so it is dropped if relax fails half-way
+        long[] seen = this.seen;
+        this.seen = null;
+        if (seen == null || seen.length != VertexSubset.newBitmap(n).length)
+            seen = VertexSubset.newBitmap(n);
+
+        // every thread lists the destinations it adds first
+        int num_parts = getNumThreads();
+        PushRelax[] push = new PushRelax[num_parts];
+        for (int p = 0; p < num_parts; p++)
+            push[p] = new PushRelax(seen, relax);
+        parallelFor(num_parts, p -> {
+            int to = VertexSubset.slice(active.length, p + 1, num_parts);
+            for (int i = VertexSubset.slice(active.length, p, num_parts); i < to; i++)
+                out.ranged_edgemap(push[p], active[i], active[i]);
+        });
+
+        // concatenate the lists and clear the bitmap again
+        int[] start = new int[num_parts + 1];
+        for (int p = 0; p < num_parts; p++)
+            start[p + 1] = start[p] + push[p].size;
+        int[] members = new int[start[num_parts]];
+        final long[] clear = seen;
+        parallelFor(num_parts, p -> {
+            System.arraycopy(push[p].added, 0, members, start[p], push[p].size);
+            for (int i = 0; i < push[p].size; i++)
+                clear[push[p].added[i] >>> 6] = 0;
+        });
+        this.seen = seen;
+        return new VertexSubset(n, members);
+    }
+
+    // Do the members of frontier and their outgoing edges exceed
+    // 1/DENSE_THRESHOLD of the edges?
+    private boolean isDense(SparseMatrix out, VertexSubset frontier) {
+        double threshold = (double) out.getNumEdges() / DENSE_THRESHOLD;
+        if (frontier.size() > threshold)
+            return true;
+
+        double work;
+        if (frontier.isDense()) {
+            long[] bits = frontier.toDense(this);
+            work = vertexsum(bits.length, (from, to) -> {
+                long w = 0;
+                for (int i = from; i < to; i++) {
+                    for (long word = bits[i]; word != 0; word &= word - 1) {
+                        int v = (i << 6) + Long.numberOfTrailingZeros(word);
+                        w += 1 + out.getDegree(v);
+                    }
+                }
+                return w;
+            });
+        } else {
+            int[] members = frontier.toSparse(this);
+            work = vertexsum(members.length, (from, to) -> {
+                long w = 0;
+                for (int i = from; i < to; i++)
+                    w += 1 + out.getDegree(members[i]);
+                return w;
+            });
+        }
+        return work > threshold;
+    }
+
+    // Pushes along the outgoing edges of frontier members, listing the
+    // destinations that no other thread has added yet
+    private static class PushRelax implements Relax {
+        private final long[] seen;
+        private final FrontierRelax relax;
+        int[] added = new int[16];
+        int size = 0;
+
+        PushRelax(long[] seen, FrontierRelax relax) {
+            this.seen = seen;
+            this.relax = relax;
+        }
+
+        private void add(int dst) {
+            if (VertexSubset.set(seen, dst)) {
+                if (size == added.length)
+                    added = Arrays.copyOf(added, 2 * size);
+                added[size++] = dst;
+            }
+        }
+
+        public void relax(int src, int dst) {
+            if (relax.cond(dst) && relax.updateAtomic(src, dst))
+                add(dst);
+        }
+
+        public void relaxOut(int src, int dsts[], int from, int to) {
+            for (int j = from; j < to; j++) {
+                int dst = dsts[j];
+                if (relax.cond(dst) && relax.updateAtomic(src, dst))
+                    add(dst);
+            }
+        }
+    }
+
+    // Pulls along the incoming edges of a destination from frontier members
+    private static class PullRelax implements Relax {
+        private final VertexSubset frontier;
+        private final long[] next;
+        private final FrontierRelax relax;
+
+        PullRelax(VertexSubset frontier, long[] next, FrontierRelax relax) {
+            this.frontier = frontier;
+            this.next = next;
+            this.relax = relax;
+        }
+
+        public void relax(int src, int dst) {
+            if (frontier.contains(src) && relax.cond(dst) && relax.update(src, dst))
+                VertexSubset.set(next, dst);
+        }
+
+        public void relaxIn(int dst, int srcs[], int from, int to) {
+            boolean changed = false;
+            for (int j = from; j < to && relax.cond(dst); j++) {
+                int src = srcs[j];
+                if (frontier.contains(src) && relax.update(src, dst))
+                    changed = true;
+            }
+            if (changed)
+                VertexSubset.set(next, dst);
+        }
+    }
+
+    // Run task(i) for i = 0 ... num_parts-1, with num_parts at most the
+    // number of threads, and wait for all to complete. Contexts that have
+    // threads run the tasks in parallel.
+    void parallelFor(int num_parts, IntConsumer task) {
+        for (int i = 0; i < num_parts; i++)
+            task.accept(i);
+    }
+
+    // Apply op to the vertices 0...n-1, split in one range per thread
+    public void vertexmap(int n, VertexMap op) {
+        int num_parts = getNumThreads();
+        parallelFor(num_parts, i -> {
+            int from = (int) ((long) n * i / num_parts);
+            int to = (int) ((long) n * (i + 1) / num_parts);
+            if (from < to)
+                op.apply(from, to);
+        });
+    }
+
+    // Sum op over the vertices 0...n-1. Every thread sums one range, and the
+    // range sums are added in order with Kahan summation, so the result does
+    // not depend on the timing of the threads.
+    public double vertexsum(int n, VertexSum op) {
+        int num_parts = getNumThreads();
+        double[] partial = new double[num_parts];
+        parallelFor(num_parts, i -> {
+            int from = (int) ((long) n * i / num_parts);
+            int to = (int) ((long) n * (i + 1) / num_parts);
+            partial[i] = from < to ? op.sum(from, to) : 0.;
+        });
+
+        double d = 0.;
+        double err = 0.;
+        for (int i = 0; i < num_parts; ++i) {
+            double tmp = d;
+            double y = partial[i] + err;
+            d = tmp + y;
+            err = tmp - d;
+            err += y;
+        }
+        return d;
+    }
 }
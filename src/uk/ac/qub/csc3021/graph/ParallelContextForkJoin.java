@@ -0,0 +1,151 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// A parallel context backed by a work-stealing ForkJoinPool. The range of
+// all vertices is split in two halves of equal work (vertices plus edges,
+// see SparseMatrix.getWork) recursively, until a range holds no more than
+// the grain of work, which is then processed by ranged_edgemap. A thread
+// that runs out of ranges steals pending halves from the other threads, so
+// skew in the graph or a slow core on a shared host only delays the last
+// few small ranges, instead of a whole static partition.
+//
+// As with the static partitions, every range is visited by one thread only,
+// so threads only update their own vertices when the matrix is in CSC
+// layout. For matrices that visit edges by source, every worker accumulates
+// into the slot of its pool index, and the slots are summed afterwards (see
+// EdgeAccumulator).
+public class ParallelContextForkJoin extends ParallelContext {
+    static final int DEFAULT_GRAIN = 1 << 15; // units of work per leaf task
+
+    private final ForkJoinPool pool;
+    private final long grain;
+
+    public ParallelContextForkJoin(int num_threads) {
+        this(num_threads, DEFAULT_GRAIN);
+    }
+
+    public ParallelContextForkJoin(int num_threads, long grain) {
+        super(num_threads);
+        this.pool = new ForkJoinPool(num_threads);
+        this.grain = Math.max(1, grain);
+    }
+
+    public void terminate() {
+        pool.shutdown();
+    }
+
+    public void edgemap(SparseMatrix matrix, Relax relax) {
+        if (matrix.groupsByDestination()) {
+            pool.invoke(new RangeTask(matrix, relax, null, 0, matrix.getRangeLength()));
+        } else if (relax instanceof AccumulatingRelax) {
+            EdgeAccumulator accumulator = getAccumulator();
+            int n = matrix.getNumVertices();
+            accumulator.begin((AccumulatingRelax) relax, n);
+            pool.invoke(new RangeTask(matrix, null, accumulator, 0, matrix.getRangeLength()));
+            pool.invoke(new ReduceTask(accumulator, 0, n));
+        } else {
+            // no safe way to run relax in parallel
+            matrix.edgemap(relax);
+        }
+    }
+
+    // Processes the vertices from...to-1, applying relax, or accumulating
+    // the updates in the slot of the worker thread
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SparseMatrix matrix;
+        private final Relax relax;
+        private final EdgeAccumulator accumulator;
+        private final int from;
+        private final int to;
+
+        RangeTask(SparseMatrix matrix, Relax relax, EdgeAccumulator accumulator, int from, int to) {
+            this.matrix = matrix;
+            this.relax = relax;
+            this.accumulator = accumulator;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            long start = matrix.getWork(from);
+            long end = matrix.getWork(to);
+            if (end - start <= grain || to - from <= 1) {
+                if (from < to)
+                    matrix.ranged_edgemap(relax != null ? relax : accumulator.slot(slot()), from, to - 1);
+                return;
+            }
+            // split in halves of equal work, but never into an empty range
+            int mid = matrix.findWork(start + (end - start) / 2, from + 1, to - 1);
+            invokeAll(new RangeTask(matrix, relax, accumulator, from, mid),
+                    new RangeTask(matrix, relax, accumulator, mid, to));
+        }
+    }
+
+    // Sums the accumulated updates of the vertices from...to-1
+    private class ReduceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final EdgeAccumulator accumulator;
+        private final int from;
+        private final int to;
+
+        ReduceTask(EdgeAccumulator accumulator, int from, int to) {
+            this.accumulator = accumulator;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= grain) {
+                accumulator.reduce(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ReduceTask(accumulator, from, mid), new ReduceTask(accumulator, mid, to));
+        }
+    }
+
+    void parallelFor(int num_parts, IntConsumer task) {
+        pool.invoke(new PartTask(task, 0, num_parts));
+    }
+
+    // Runs task(i) for the parts from...to-1
+    private static class PartTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer task;
+        private final int from;
+        private final int to;
+
+        PartTask(IntConsumer task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to)
+                    task.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new PartTask(task, from, mid), new PartTask(task, mid, to));
+        }
+    }
+
+    // The accumulator slot of the current thread. A thread outside the pool
+    // that helps out shares the atomic slot (see EdgeAccumulator).
+    private int slot() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == pool)
+            return ((ForkJoinWorkerThread) t).getPoolIndex();
+        return -1;
+    }
+}
@@ -1,6 +1,8 @@
 package uk.ac.qub.csc3021.graph;
 
-// This class holds a single instance of a parallel context
+// This class holds a single instance of a parallel context, for callers of
+// the compute methods that take no context. As with any context, only one
+// computation may use it at a time (see ParallelContext).
 public class ParallelContextHolder {
     private static ParallelContext context = null;
 
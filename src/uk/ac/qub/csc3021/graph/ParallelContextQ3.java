@@ -1,29 +1,147 @@
-/*
 package uk.ac.qub.csc3021.graph;
 
-import java.util.concurrent.*;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.IntConsumer;
 
+// A parallel context with a persistent pool of threads. The constructor
+// starts num_threads - 1 worker threads, which remain running until
+// terminate() is called. The main thread and the workers synchronise on a
+// barrier twice per step: once to hand out the task, and once when every
+// thread has completed its part. The main thread does the first part
+// itself. Each step thus costs two barrier steps, rather than creating and
+// joining threads.
+//
+// The partitions are ranges of vertices visited by ranged_edgemap, balanced
+// by their number of edges, so every thread only updates the vertices in its
+// own range when the matrix is in CSC layout. For matrices that visit edges
+// by source, a second step sums the per-thread results (see
+// EdgeAccumulator).
 public class ParallelContextQ3 extends ParallelContext {
+    private final ThreadQ3[] threads;
+    private final CyclicBarrier barrier;
+
+    // the task of the current step, published to the workers by the barrier
+    private IntConsumer task;
+    private boolean terminated = false;
+
     private class ThreadQ3 extends Thread {
+        private final int id;
+        Throwable error = null;
 
-	public void run() {
-	}
-    };
+        ThreadQ3(int id) {
+            this.id = id;
+            setDaemon(true);
+        }
 
+        public void run() {
+            try {
+                while (true) {
+                    barrier.await();
+                    if (terminated)
+                        return;
+                    try {
+                        task.accept(id);
+                    } catch (Throwable e) {
+                        error = e;
+                    }
+                    barrier.await();
+                }
+            } catch (InterruptedException | BrokenBarrierException e) {
+                // the pool is shutting down
+            }
+        }
+    }
 
-    public ParallelContextQ3( int num_threads ) {
-	super( num_threads );
+    public ParallelContextQ3(int num_threads) {
+        super(num_threads);
+        barrier = new CyclicBarrier(num_threads);
+        threads = new ThreadQ3[num_threads - 1];
+        for (int i = 0; i < num_threads - 1; i++) {
+            threads[i] = new ThreadQ3(i + 1);
+            threads[i].start();
+        }
     }
 
+    // Release the workers from the barrier and wait for them to finish
     public void terminate() {
+        if (terminated)
+            return;
+        terminated = true;
+        await();
+        for (ThreadQ3 t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+
+            }
+        }
+    }
+
+    public void edgemap(SparseMatrix matrix, Relax relax) {
+        int numThreads = getNumThreads();
+
+        // the partitions hold about the same number of edges each (see
+        // SparseMatrix.getPartitions)
+        int[] bounds = matrix.getPartitions(numThreads);
+
+        if (matrix.groupsByDestination()) {
+            run(i -> ranged_edgemap(matrix, relax, bounds[i], bounds[i + 1]));
+        } else if (relax instanceof AccumulatingRelax) {
+            // threads may update the same destination: accumulate per thread
+            // and sum the partial results in a second step
+            EdgeAccumulator accumulator = getAccumulator();
+            int n = matrix.getNumVertices();
+            accumulator.begin((AccumulatingRelax) relax, n);
+            run(i -> ranged_edgemap(matrix, accumulator.slot(i), bounds[i], bounds[i + 1]));
+            run(i -> accumulator.reduce((int) ((long) n * i / numThreads),
+                    (int) ((long) n * (i + 1) / numThreads)));
+        } else {
+            // no safe way to run relax in parallel
+            matrix.edgemap(relax);
+        }
+    }
+
+    private static void ranged_edgemap(SparseMatrix matrix, Relax relax, int from, int to) {
+        if (from < to)
+            matrix.ranged_edgemap(relax, from, to - 1);
+    }
+
+    void parallelFor(int num_parts, IntConsumer task) {
+        run(i -> {
+            if (i < num_parts)
+                task.accept(i);
+        });
+    }
+
+    // Run task(i) on thread i, for all threads, and wait for them to complete
+    private void run(IntConsumer task) {
+        if (terminated)
+            throw new IllegalStateException("parallel context has been terminated");
+        this.task = task;
+
+        await();           // start the workers
+        try {
+            task.accept(0);
+        } finally {
+            await();       // wait for the workers to complete
+        }
+
+        this.task = null;
+        for (ThreadQ3 t : threads) {
+            if (t.error != null) {
+                Throwable error = t.error;
+                t.error = null;
+                throw new RuntimeException("edgemap failed in worker thread", error);
+            }
+        }
     }
 
-    // The constructor for Q3 should create threads, which each remain
-    // running throughout the program. They synchronise on a barrier.
-    // The main thread executes the iterate method below, which also steps
-    // through this barrier.
-    public void iterate( SparseMatrix matrix, Relax relax ) {
-	// use matrix.iterate( relax, from, to ); in each thread
+    private void await() {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new RuntimeException("parallel context barrier broken", e);
+        }
     }
 }
-*/
@@ -1,21 +1,19 @@
 package uk.ac.qub.csc3021.graph;
 
-public class ParallelContextSimple extends ParallelContext {
-    // references to the objects needed as parameters in ranged_edgemap
-    SparseMatrix matrixRef;
-    Relax relaxRef;
+import java.util.function.IntConsumer;
 
+public class ParallelContextSimple extends ParallelContext {
     private class ThreadSimple extends Thread {
-        private int from;
-        private int to;
+        private int id;
+        private IntConsumer task;
 
-        ThreadSimple(int from, int to) {
-            this.from = from;
-            this.to = to;
+        ThreadSimple(int id, IntConsumer task) {
+            this.id = id;
+            this.task = task;
         }
 
         public void run() {
-            matrixRef.ranged_edgemap(relaxRef, from, to);
+            task.accept(id);
         }
     }
 
@@ -29,30 +27,49 @@ public class ParallelContextSimple extends ParallelContext {
     // The edgemap method for Q3 should create threads, which each process
     // one graph partition, then wait for them to complete.
     public void edgemap(SparseMatrix matrix, Relax relax) {
-        matrixRef = matrix;
-        relaxRef = relax;
-
-        double numVertices = matrix.getNumVertices();
         int numThreads = getNumThreads();
-        int rangeLength = (int) Math.ceil(numVertices / numThreads);
 
-        ThreadSimple[] threads = new ThreadSimple[numThreads];
+        // the ranges hold about the same number of edges each (see
+        // SparseMatrix.getPartitions)
+        int[] bounds = matrix.getPartitions(numThreads);
 
-        // create the threads and pass in the ranges
-        int from;
-        int to;
-        for (int i = 0; i < numThreads - 1; i++) {
-            from = i * rangeLength;
-            to = from + rangeLength - 1;
-            threads[i] = new ThreadSimple(from, to);
+        if (matrix.groupsByDestination()) {
+            run(i -> ranged_edgemap(matrix, relax, bounds[i], bounds[i + 1]));
+        } else if (relax instanceof AccumulatingRelax) {
+            // threads may update the same destination: accumulate per thread
+            // and sum the partial results afterwards
+            EdgeAccumulator accumulator = getAccumulator();
+            int n = matrix.getNumVertices();
+            accumulator.begin((AccumulatingRelax) relax, n);
+            run(i -> ranged_edgemap(matrix, accumulator.slot(i), bounds[i], bounds[i + 1]));
+            run(i -> accumulator.reduce((int) ((long) n * i / numThreads),
+                    (int) ((long) n * (i + 1) / numThreads)));
+        } else {
+            // no safe way to run relax in parallel
+            matrix.edgemap(relax);
         }
-        // last partition
-        from = (numThreads - 1) * rangeLength;
-        to = (int) numVertices - 1;
-        threads[numThreads - 1] = new ThreadSimple(from, to);
+    }
+
+    private static void ranged_edgemap(SparseMatrix matrix, Relax relax, int from, int to) {
+        if (from < to)
+            matrix.ranged_edgemap(relax, from, to - 1);
+    }
+
+    void parallelFor(int num_parts, IntConsumer task) {
+        run(i -> {
+            if (i < num_parts)
+                task.accept(i);
+        });
+    }
+
+    // Run task(i) on thread i, for all threads, and wait for them to complete
+    private void run(IntConsumer task) {
+        int numThreads = getNumThreads();
+        ThreadSimple[] threads = new ThreadSimple[numThreads];
 
         // start all the threads
         for (int i = 0; i < numThreads; i++) {
+            threads[i] = new ThreadSimple(i, task);
             threads[i].start();
         }
 
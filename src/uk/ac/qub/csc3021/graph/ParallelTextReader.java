@@ -0,0 +1,317 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reads the text graph formats (CSR, CSC and COO) with several threads off
+// a memory mapped file. The body of the file, after the three header lines,
+// is split into parts that each start right after a newline character.
+// There is at least one part per thread, and more when the file is large,
+// as a single MappedByteBuffer cannot cover more than 2GB. Loading then
+// takes two passes: the threads first count the lines (vertices) and edges
+// in their parts, a prefix sum over those counts gives each part its first
+// vertex and edge position, and finally the threads parse their parts again,
+// storing the values straight into the final arrays without creating any
+// intermediate String objects.
+class ParallelTextReader {
+    // Upper bound on the size of one part. Parts are extended up to the end
+    // of a line, so this leaves room for very long adjacency lists.
+    static final long MAX_PART = 1L << 30;
+
+    private static final int COUNT = 0;      // count lines and edges
+    private static final int ADJACENCY = 1;  // fill index and adjacency (CSR/CSC)
+    private static final int DEGREE = 2;     // store adjacency list lengths
+    private static final int PAIRS = 3;      // fill edge pairs (COO)
+
+    private final MappedByteBuffer[] parts;
+    private final int num_threads;
+
+    final String header;      // first line of the file, e.g. "CSR"
+    final int num_vertices;   // Number of vertices in the graph
+    final long num_edges;     // Number of edges in the graph
+    final long[] startingPos; // part i of the body is startingPos[i]..startingPos[i+1]
+
+    // per-part results of the counting pass and their prefix sums
+    private final long[] lines;
+    private final long[] edges;
+    private final long[] vertexBase;
+    private final long[] edgeBase;
+
+    ParallelTextReader(String file, int num_threads) throws Exception {
+        this.num_threads = num_threads;
+        if (GzipInput.isGzip(file))
+            throw new Exception("compressed files cannot be memory mapped -- use the CSR, CSC or COO format");
+
+        // The mappings stay valid after the channel is closed and are
+        // released once this reader is garbage collected.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel fileChannel = raf.getChannel();
+            long size = fileChannel.size();
+
+            ByteBuffer head = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 1 << 16));
+            StringBuilder line = new StringBuilder();
+            byte prev;
+            while (head.hasRemaining() && (prev = head.get()) != 10) {
+                if (prev != 13)
+                    line.append((char) prev);
+            }
+            header = line.toString();
+            num_vertices = Math.toIntExact(getNext(head));
+            num_edges = getNext(head);
+
+            // get all the start and end positions for the parts
+            long body = head.position(); // first position will always be after the edge's newline character
+            int num_parts = (int) Math.max(num_threads, (size - body + MAX_PART - 1) / MAX_PART);
+            long partSize = (size - body) / num_parts;
+            startingPos = new long[num_parts + 1];
+            startingPos[0] = body;
+            for (int i = 1; i < num_parts; i++) {
+                startingPos[i] = nextLine(fileChannel, Math.min(startingPos[i - 1] + partSize, size));
+            }
+            startingPos[num_parts] = size;
+
+            parts = new MappedByteBuffer[num_parts];
+            for (int i = 0; i < num_parts; i++) {
+                long length = startingPos[i + 1] - startingPos[i];
+                if (length > Integer.MAX_VALUE)
+                    throw new Exception("file format error -- line too long near offset " + startingPos[i]);
+                parts[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, startingPos[i], length);
+            }
+        }
+
+        lines = new long[parts.length];
+        edges = new long[parts.length];
+        vertexBase = new long[parts.length];
+        edgeBase = new long[parts.length];
+    }
+
+    private static long getNext(ByteBuffer head) throws Exception {
+        long value = 0;
+        boolean digits = false;
+        byte prev;
+        while (head.hasRemaining() && (prev = head.get()) != 10) {
+            if (prev >= '0' && prev <= '9') {
+                value = (value * 10) + prev - '0';
+                digits = true;
+            }
+        }
+        if (!digits)
+            throw new Exception("premature end of file");
+        return value;
+    }
+
+    // Return the position just after the first newline at or after pos
+    private static long nextLine(FileChannel fileChannel, long pos) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(1 << 16);
+        long size = fileChannel.size();
+        while (pos < size) {
+            block.clear();
+            int count = fileChannel.read(block, pos);
+            if (count <= 0)
+                break;
+            for (int i = 0; i < count; i++) {
+                if (block.get(i) == 10)
+                    return pos + i + 1;
+            }
+            pos += count;
+        }
+        return size;
+    }
+
+    // Fill index and adjacency from a file in CSR or CSC format. The
+    // adjacency array receives the destinations (CSR) or sources (CSC).
+    void readAdjacency(int[] index, int[] adjacency) throws Exception {
+        run(COUNT, null, null, null, null);
+        prefixSum();
+        int last = parts.length - 1;
+        if (vertexBase[last] + lines[last] != num_vertices)
+            throw new Exception("file format error -- header says " + num_vertices
+                    + " vertices but file holds " + (vertexBase[last] + lines[last]));
+        run(ADJACENCY, index, adjacency, null, null);
+        index[num_vertices] = (int) num_edges;
+    }
+
+    // As above, but fill arrays held outside the Java heap. The index holds
+    // longs, so the graph may have more than 2^31 edges.
+    void readAdjacency(ChunkedBuffer index, ChunkedBuffer adjacency) throws Exception {
+        run(COUNT, null, null, null, null);
+        prefixSum();
+        int last = parts.length - 1;
+        if (vertexBase[last] + lines[last] != num_vertices)
+            throw new Exception("file format error -- header says " + num_vertices
+                    + " vertices but file holds " + (vertexBase[last] + lines[last]));
+        run(ADJACENCY, null, null, index, adjacency);
+        index.putLong(num_vertices, num_edges);
+    }
+
+    // Store the length of the adjacency list of every vertex of a file in
+    // CSR or CSC format, i.e. the out-degree (CSR) or in-degree (CSC).
+    void readDegrees(int[] degree) throws Exception {
+        run(DEGREE, degree, null, null, null);
+    }
+
+    // Fill the source and destination arrays from a file in COO format
+    void readPairs(int[] sources, int[] destinations) throws Exception {
+        run(COUNT, null, null, null, null);
+        prefixSum();
+        run(PAIRS, sources, destinations, null, null);
+    }
+
+    // Work out the first vertex and edge position of every part
+    private void prefixSum() throws Exception {
+        long vertex = 0;
+        long where = 0;
+        for (int p = 0; p < parts.length; p++) {
+            vertexBase[p] = vertex;
+            edgeBase[p] = where;
+            vertex += lines[p];
+            where += edges[p];
+        }
+        if (where != num_edges)
+            throw new Exception("file format error -- header says " + num_edges
+                    + " edges but file holds " + where);
+    }
+
+    // Thread t processes parts t, t + num_threads, t + 2 * num_threads, ...
+    // The results go to the arrays a and b, or to the off-heap buffers la
+    // (longs) and ib (ints) when the arrays are null.
+    private void run(int mode, int[] a, int[] b, ChunkedBuffer la, ChunkedBuffer ib) throws Exception {
+        PartThread[] threads = new PartThread[num_threads];
+        for (int i = 0; i < num_threads; i++) {
+            threads[i] = new PartThread(mode, i, a, b, la, ib);
+            threads[i].start();
+        }
+        for (int i = 0; i < num_threads; i++) {
+            threads[i].join();
+        }
+        for (int i = 0; i < num_threads; i++) {
+            if (threads[i].error != null)
+                throw threads[i].error;
+        }
+    }
+
+    private class PartThread extends Thread {
+        private final int mode;
+        private final int first;
+        private final int[] a;
+        private final int[] b;
+        private final ChunkedBuffer la;
+        private final ChunkedBuffer ib;
+        Exception error = null;
+
+        PartThread(int mode, int first, int[] a, int[] b, ChunkedBuffer la, ChunkedBuffer ib) {
+            this.mode = mode;
+            this.first = first;
+            this.a = a;
+            this.b = b;
+            this.la = la;
+            this.ib = ib;
+        }
+
+        public void run() {
+            try {
+                for (int p = first; p < parts.length; p += num_threads) {
+                    if (mode == PAIRS)
+                        parsePairs(p);
+                    else
+                        parseLines(p);
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        // CSR/CSC: every line holds a vertex followed by its adjacency list
+        private void parseLines(int p) throws Exception {
+            MappedByteBuffer buffer = parts[p];
+            int end = buffer.limit();
+            int pos = 0;
+            long vertex = vertexBase[p];
+            long where = edgeBase[p];
+            long numLines = 0;
+            long numEdges = 0;
+            while (pos < end) {
+                // get vertex value, skipping blank lines
+                byte prev = buffer.get(pos++);
+                if (prev < '0' || prev > '9')
+                    continue;
+                int v = 0;
+                while (prev >= '0' && prev <= '9') {
+                    v = (v * 10) + prev - '0';
+                    prev = pos < end ? buffer.get(pos++) : 10;
+                }
+                if (mode == ADJACENCY) {
+                    if (v != vertex)
+                        throw new Exception("file format error -- vertex " + v
+                                + " found; expected " + vertex);
+                    if (a != null)
+                        a[v] = (int) where;
+                    else
+                        la.putLong(v, where);
+                }
+
+                // get the adjacency list up to the end of the line
+                int degree = 0;
+                while (prev != 10) {
+                    prev = pos < end ? buffer.get(pos++) : 10;
+                    if (prev < '0' || prev > '9')
+                        continue;
+                    int u = 0;
+                    while (prev >= '0' && prev <= '9') {
+                        u = (u * 10) + prev - '0';
+                        prev = pos < end ? buffer.get(pos++) : 10;
+                    }
+                    if (mode == ADJACENCY) {
+                        if (b != null)
+                            b[(int) where] = u;
+                        else
+                            ib.putInt(where, u);
+                        where++;
+                    }
+                    degree++;
+                }
+                if (mode == DEGREE)
+                    a[v] = degree;
+                vertex++;
+                numLines++;
+                numEdges += degree;
+            }
+            lines[p] = numLines;
+            edges[p] = numEdges;
+        }
+
+        // COO: every line holds one edge as a source/destination pair
+        private void parsePairs(int p) throws Exception {
+            MappedByteBuffer buffer = parts[p];
+            int end = buffer.limit();
+            int pos = 0;
+            int where = (int) edgeBase[p];
+            while (pos < end) {
+                byte prev = buffer.get(pos++);
+                if (prev < '0' || prev > '9')
+                    continue;
+                int src = 0;
+                while (prev >= '0' && prev <= '9') {
+                    src = (src * 10) + prev - '0';
+                    prev = pos < end ? buffer.get(pos++) : 10;
+                }
+                while (prev != 10 && (prev < '0' || prev > '9'))
+                    prev = pos < end ? buffer.get(pos++) : 10;
+                if (prev == 10)
+                    throw new Exception("file format error -- edge " + where + " has no destination");
+                int dst = 0;
+                while (prev >= '0' && prev <= '9') {
+                    dst = (dst * 10) + prev - '0';
+                    prev = pos < end ? buffer.get(pos++) : 10;
+                }
+                while (prev != 10)
+                    prev = pos < end ? buffer.get(pos++) : 10;
+                a[where] = src;
+                b[where] = dst;
+                where++;
+            }
+        }
+    }
+}
@@ -2,6 +2,24 @@ package uk.ac.qub.csc3021.graph;
 
 // Functional interface that describes the operation performed when visiting
 // an edge.
+//
+// The matrices in CSC and CSR layout hand over all edges of a vertex at once
+// through relaxIn and relaxOut. As every algorithm overrides these with a
+// loop of its own, the per-edge work is a monomorphic loop that the JIT can
+// inline and optimise, with one interface call per vertex rather than one
+// per edge.
 interface Relax {
     public void relax(int source, int destination);
+
+    // Relax the edges from the sources srcs[from...to-1] to destination dst
+    default void relaxIn(int destination, int[] sources, int from, int to) {
+        for (int j = from; j < to; j++)
+            relax(sources[j], destination);
+    }
+
+    // Relax the edges from source src to the destinations dsts[from...to-1]
+    default void relaxOut(int source, int[] destinations, int from, int to) {
+        for (int j = from; j < to; j++)
+            relax(source, destinations[j]);
+    }
 }
@@ -0,0 +1,307 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// Writes the per-vertex results (PageRank values, component sizes) to file
+// with several threads. The vertices are split into blocks. For text output,
+// the threads first work out the length in bytes of every block, a prefix
+// sum gives each block its position in the file, and then the threads
+// format their blocks into reusable byte buffers and write them with
+// positional writes. No String is created per vertex.
+//
+// Text output has one line per vertex: the vertex number and the value.
+// Doubles are written with 17 significant digits in scientific notation,
+// e.g. 1.2345678901234567E-5, which is enough to read back the exact value.
+//
+// Binary output (all values little-endian):
+//   bytes  0..7   magic "QUBVALUE"
+//   bytes  8..11  format version
+//   bytes 12..15  type: 0 = int, 1 = double
+//   bytes 16..23  number of values n
+//   then n ints or n doubles
+public class ResultWriter {
+    static final byte[] MAGIC = {'Q', 'U', 'B', 'V', 'A', 'L', 'U', 'E'};
+    static final int VERSION = 1;
+    static final int TYPE_INT = 0;
+    static final int TYPE_DOUBLE = 1;
+    static final int HEADER_SIZE = 24;
+
+    static final int BLOCK = 1 << 16;       // vertices per block
+    static final int BUFFER_SIZE = 1 << 20; // bytes per thread buffer
+    static final int MAX_LINE = 64;         // upper bound on the length of a line
+
+    // Write v in binary if the file name ends in .bin, else as text
+    public static void write(String file, double[] v, int num_threads) throws Exception {
+        if (file.endsWith(".bin"))
+            new ResultWriter(v, null, num_threads).writeBinary(file);
+        else
+            new ResultWriter(v, null, num_threads).writeText(file);
+    }
+
+    // Write v in binary if the file name ends in .bin, else as text
+    public static void write(String file, int[] v, int num_threads) throws Exception {
+        if (file.endsWith(".bin"))
+            new ResultWriter(null, v, num_threads).writeBinary(file);
+        else
+            new ResultWriter(null, v, num_threads).writeText(file);
+    }
+
+    private final double[] dv;  // either the doubles
+    private final int[] iv;     // or the ints to write
+    private final int n;
+    private final int num_threads;
+    private final int num_blocks;
+    private final long[] blockPos;
+    private boolean binary = false;
+
+    private ResultWriter(double[] dv, int[] iv, int num_threads) {
+        this.dv = dv;
+        this.iv = iv;
+        this.n = dv != null ? dv.length : iv.length;
+        this.num_threads = Math.max(1, num_threads);
+        this.num_blocks = (n + BLOCK - 1) / BLOCK;
+        this.blockPos = new long[num_blocks + 1];
+    }
+
+    private void writeText(String file) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel fileChannel = raf.getChannel();
+            fileChannel.truncate(0);
+
+            // blockPos[b + 1] receives the length of block b
+            run(false, fileChannel);
+            for (int b = 0; b < num_blocks; b++)
+                blockPos[b + 1] += blockPos[b];
+            run(true, fileChannel);
+        }
+    }
+
+    private void writeBinary(String file) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel fileChannel = raf.getChannel();
+            fileChannel.truncate(0);
+            binary = true;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(dv != null ? TYPE_DOUBLE : TYPE_INT);
+            header.putLong(n);
+            header.flip();
+            while (header.hasRemaining())
+                fileChannel.write(header, header.position());
+
+            int size = dv != null ? 8 : 4;
+            for (int b = 0; b <= num_blocks; b++)
+                blockPos[b] = HEADER_SIZE + Math.min(b * (long) BLOCK, n) * size;
+            run(true, fileChannel);
+        }
+    }
+
+    private void run(boolean write, FileChannel fileChannel) throws Exception {
+        WriteThread[] threads = new WriteThread[num_threads];
+        for (int i = 0; i < num_threads; i++) {
+            threads[i] = new WriteThread(i, write, fileChannel);
+            threads[i].start();
+        }
+        for (int i = 0; i < num_threads; i++) {
+            threads[i].join();
+        }
+        for (int i = 0; i < num_threads; i++) {
+            if (threads[i].error != null)
+                throw threads[i].error;
+        }
+    }
+
+    // Thread t handles blocks t, t + num_threads, t + 2 * num_threads, ...
+    // Without write set, it only stores the length of its text blocks.
+    private class WriteThread extends Thread {
+        private final int first;
+        private final boolean write;
+        private final FileChannel fileChannel;
+        private final DoubleFormat format = new DoubleFormat();
+        Exception error = null;
+
+        WriteThread(int first, boolean write, FileChannel fileChannel) {
+            this.first = first;
+            this.write = write;
+            this.fileChannel = fileChannel;
+        }
+
+        public void run() {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                byte[] text = new byte[BUFFER_SIZE];
+                for (int b = first; b < num_blocks; b += num_threads) {
+                    int from = b * BLOCK;
+                    int to = Math.min(from + BLOCK, n);
+                    if (!write)
+                        blockPos[b + 1] = textLength(from, to);
+                    else if (binary)
+                        writeBinary(buffer, from, to, blockPos[b]);
+                    else
+                        writeText(text, from, to, blockPos[b]);
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        private long textLength(int from, int to) {
+            long length = 0;
+            for (int i = from; i < to; i++) {
+                length += intLength(i) + 2; // space and newline
+                if (dv != null)
+                    length += format.length(dv[i]);
+                else
+                    length += intLength(iv[i]);
+            }
+            return length;
+        }
+
+        private void writeText(byte[] text, int from, int to, long where) throws IOException {
+            int pos = 0;
+            for (int i = from; i < to; i++) {
+                if (pos > text.length - MAX_LINE) {
+                    where = flush(ByteBuffer.wrap(text, 0, pos), where);
+                    pos = 0;
+                }
+                pos = putInt(text, pos, i);
+                text[pos++] = ' ';
+                if (dv != null)
+                    pos = format.put(text, pos, dv[i]);
+                else
+                    pos = putInt(text, pos, iv[i]);
+                text[pos++] = '\n';
+            }
+            flush(ByteBuffer.wrap(text, 0, pos), where);
+        }
+
+        private void writeBinary(ByteBuffer buffer, int from, int to, long where) throws IOException {
+            buffer.clear();
+            for (int i = from; i < to; i++) {
+                if (dv != null)
+                    buffer.putDouble(dv[i]);
+                else
+                    buffer.putInt(iv[i]);
+            }
+            buffer.flip();
+            flush(buffer, where);
+        }
+
+        private long flush(ByteBuffer buffer, long where) throws IOException {
+            while (buffer.hasRemaining())
+                where += fileChannel.write(buffer, where);
+            return where;
+        }
+    }
+
+    static int intLength(long value) {
+        int length = value < 0 ? 2 : 1;
+        long v = Math.abs(value);
+        while (v >= 10) {
+            v /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    // Store value in decimal at text[pos...] and return the position after it
+    static int putInt(byte[] text, int pos, int value) {
+        long v = value;
+        if (v < 0) {
+            text[pos++] = '-';
+            v = -v;
+        }
+        int end = pos + intLength(v);
+        for (int p = end - 1; p >= pos; p--) {
+            text[p] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return end;
+    }
+
+    // Formats doubles as d.ddddddddddddddddE[-]x with 17 significant digits.
+    // The value is scaled by a power of ten held as the sum of two doubles,
+    // and the product is computed with a fused multiply-add, so the digits
+    // are exact up to an error far below the last digit. Zero, infinities,
+    // NaN and values too small to scale fall back to Double.toString.
+    static class DoubleFormat {
+        static final int DIGITS = 17;
+        static final long LOW = 10_000_000_000_000_000L;  // 10^(DIGITS-1)
+        static final long HIGH = 100_000_000_000_000_000L; // 10^DIGITS
+        static final int MAX_POW = 300;
+        static final double[] POW10_HI = new double[2 * MAX_POW + 1];
+        static final double[] POW10_LO = new double[2 * MAX_POW + 1];
+
+        static {
+            MathContext mc = new MathContext(40);
+            for (int k = -MAX_POW; k <= MAX_POW; k++) {
+                BigDecimal p = k >= 0 ? BigDecimal.TEN.pow(k) : BigDecimal.ONE.divide(BigDecimal.TEN.pow(-k), mc);
+                POW10_HI[k + MAX_POW] = p.doubleValue();
+                POW10_LO[k + MAX_POW] = p.subtract(new BigDecimal(POW10_HI[k + MAX_POW])).doubleValue();
+            }
+        }
+
+        private long digits;   // DIGITS digit mantissa of the last value
+        private int exponent;  // decimal exponent of the last value
+
+        // Split |x| into digits and exponent; false if not supported
+        private boolean decompose(double x) {
+            x = Math.abs(x);
+            if (!(x >= 1e-280) || x == Double.POSITIVE_INFINITY)
+                return false;
+            int e = (int) Math.floor(Math.log10(x));
+            for (int attempt = 0; attempt < 3; attempt++) {
+                int k = DIGITS - 1 - e;
+                double hi = POW10_HI[k + MAX_POW];
+                double lo = POW10_LO[k + MAX_POW];
+                double p = x * hi;
+                double err = Math.fma(x, hi, -p) + x * lo;
+                long d = (long) p + (long) Math.floor(err + 0.5);
+                if (d >= HIGH) {
+                    e++;
+                } else if (d < LOW) {
+                    e--;
+                } else {
+                    digits = d;
+                    exponent = e;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int length(double x) {
+            if (!decompose(x))
+                return Double.toString(x).length();
+            return (x < 0 ? 1 : 0) + DIGITS + 2 + intLength(exponent);
+        }
+
+        int put(byte[] text, int pos, double x) {
+            if (!decompose(x)) {
+                String s = Double.toString(x);
+                for (int i = 0; i < s.length(); i++)
+                    text[pos++] = (byte) s.charAt(i);
+                return pos;
+            }
+            if (x < 0)
+                text[pos++] = '-';
+            long d = digits;
+            for (int p = pos + DIGITS; p > pos + 1; p--) {
+                text[p] = (byte) ('0' + d % 10);
+                d /= 10;
+            }
+            text[pos] = (byte) ('0' + d);
+            text[pos + 1] = '.';
+            pos += DIGITS + 1;
+            text[pos++] = 'E';
+            return putInt(text, pos, exponent);
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package uk.ac.qub.csc3021.graph;
 
+import java.util.Arrays;
+
 public abstract class SparseMatrix {
     // Return number of vertices in the graph
     public abstract int getNumVertices();
 
     // Return number of edges in the graph
-    public abstract int getNumEdges();
+    public abstract long getNumEdges();
 
     // Auxiliary in preparation of PageRank iteration: pre-calculate the
     // out-degree (number of outgoing edges) for each vertex
@@ -18,5 +20,125 @@ public abstract class SparseMatrix {
     // Perform part of a sweep, visiting only a subset of the edges. This
     // method is used only in Assignment 2.
     public abstract void ranged_edgemap(Relax relax, int from, int to);
+
+    // Does ranged_edgemap visit the edges by destination, i.e. are all the
+    // edges into a vertex visited by the same call? Then threads that process
+    // disjoint ranges never update the same destination.
+    boolean groupsByDestination() {
+        return false;
+    }
+
+    // Does ranged_edgemap visit the edges by source, i.e. does
+    // ranged_edgemap(relax, v, v) visit exactly the outgoing edges of v?
+    boolean groupsBySource() {
+        return false;
+    }
+
+    // Return the same arrays viewed in the other layout, which is the
+    // matrix of the transposed graph, or null if not supported. For an
+    // undirected graph this gives both layouts of the graph in the memory
+    // of one.
+    SparseMatrix transpose() {
+        return null;
+    }
+
+    // Return the number of positions ranged_edgemap ranges over: the
+    // vertices, or the edges for matrices without an index (COO)
+    int getRangeLength() {
+        return getNumVertices();
+    }
+
+    // Return the number of edges ranged_edgemap visits for the vertices
+    // before v, i.e. index[v] for the compressed layouts. Matrices without
+    // an index count one edge per vertex, which splits the vertices evenly.
+    // This only serves to balance work: a format whose cost is not in
+    // proportion to its edges may count in other units (see
+    // SparseMatrixCompressed), so use getDegree to count edges.
+    long getEdgeOffset(int v) {
+        return v;
+    }
+
+    // Return the number of edges ranged_edgemap(relax, v, v) visits
+    long getDegree(int v) {
+        return getEdgeOffset(v + 1) - getEdgeOffset(v);
+    }
+
+    // Partitions for ranged_edgemap, cached for every number of parts that
+    // was asked for. Several computations may share the matrix, so the
+    // cache is replaced by a new array rather than updated in place.
+    private volatile int[][] partitions = new int[0][];
+
+    // Split the range into num_parts ranges holding about the same amount
+    // of work. Part p covers the vertices bounds[p]...bounds[p+1]-1.
+    // The work of a vertex is one plus the number of its edges, so the
+    // bounds are found by binary search on the prefix sums of the index.
+    int[] getPartitions(int num_parts) {
+        int[][] cached = partitions;
+        for (int[] b : cached) {
+            if (b.length == num_parts + 1)
+                return b;
+        }
+
+        int n = getRangeLength();
+        long total = getWork(n);
+        int[] bounds = new int[num_parts + 1];
+        for (int p = 1; p < num_parts; p++) {
+            long target = (long) ((double) total * p / num_parts);
+            bounds[p] = findWork(target, bounds[p - 1], n);
+        }
+        bounds[num_parts] = n;
+        synchronized (this) {
+            cached = Arrays.copyOf(partitions, partitions.length + 1);
+            cached[cached.length - 1] = bounds;
+            partitions = cached;
+        }
+        return bounds;
+    }
+
+    // The work of the vertices before v: one per vertex plus their edges
+    long getWork(int v) {
+        return getEdgeOffset(v) + v;
+    }
+
+    // Return the first vertex v in lo...hi with getWork(v) >= target, or hi
+    int findWork(long target, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getWork(mid) < target)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // Check that an array of the given length can be allocated on the heap.
+    // Java arrays are indexed by int, so graphs with more edges than that
+    // need a representation that is not backed by a single array: only
+    // SparseMatrixOffHeap indexes its edges by long.
+    static int arrayLength(long length) throws Exception {
+        if (length > Integer.MAX_VALUE - 8)
+            throw new Exception("graph too large for in-memory arrays: " + length
+                    + " elements -- load the CSR or CSC file in the OFFHEAP format");
+        return (int) length;
+    }
+
+    // Scratch array of the current thread, for the matrices that copy or
+    // decode an adjacency list before handing it to relax. It is kept from
+    // one ranged_edgemap to the next, so visiting a few vertices at a time,
+    // as a frontier push does, allocates nothing.
+    private static final ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[64]);
+
+    // Return the scratch array of the current thread, grown to at least
+    // length ints if needed, keeping its contents. It is not re-entrant:
+    // the array must not be in use by an outer ranged_edgemap.
+    static int[] scratch(int length) {
+        int[] a = scratch.get();
+        if (a.length < length) {
+            a = Arrays.copyOf(a, Math.max(length, 2 * a.length));
+            scratch.set(a);
+        }
+        return a;
+    }
 }
 
@@ -0,0 +1,149 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// This class represents the adjacency matrix of a graph stored in a binary
+// file, either in compressed sparse rows (CSR) or compressed sparse columns
+// (CSC) layout. The file is memory mapped rather than parsed, so loading
+// only costs the time to read the header and edgemap runs straight off the
+// page cache, which is shared between processes reading the same file. The
+// mapping lives outside the Java heap; see SparseMatrixOffHeap.
+//
+// File layout (all values little-endian):
+//   bytes  0..7   magic "QUBGRAPH"
+//   bytes  8..11  format version
+//   bytes 12..15  layout: 0 = CSR, 1 = CSC
+//   bytes 16..19  number of vertices n
+//   bytes 20..23  unused (zero)
+//   bytes 24..31  number of edges m
+//   then n + 1 longs: the index array
+//   then m ints: the destinations (CSR) or sources (CSC) array
+//
+// Edge positions are longs throughout, and the file is mapped in chunks (see
+// ChunkedBuffer), so graphs may hold more than 2^31 edges.
+public class SparseMatrixBinary extends SparseMatrixOffHeap {
+    static final byte[] MAGIC = {'Q', 'U', 'B', 'G', 'R', 'A', 'P', 'H'};
+    static final int VERSION = 2;
+    static final int LAYOUT_CSR = 0;
+    static final int LAYOUT_CSC = 1;
+    static final int HEADER_SIZE = 32;
+
+    SparseMatrixBinary() {
+    }
+
+    public SparseMatrixBinary(String file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel fileChannel = raf.getChannel();
+            readFile(fileChannel);
+        } catch (FileNotFoundException e) {
+            System.err.println("File not found: " + e);
+            return;
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+    }
+
+    void readFile(FileChannel fileChannel) throws Exception {
+        if (fileChannel.size() < HEADER_SIZE)
+            throw new Exception("premature end of file");
+
+        ByteBuffer header = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(i) != MAGIC[i])
+                throw new Exception("file format error -- header");
+        }
+        if (header.getInt(8) != VERSION)
+            throw new Exception("file format error -- unsupported version " + header.getInt(8));
+        int layout = header.getInt(12);
+        if (layout != LAYOUT_CSR && layout != LAYOUT_CSC)
+            throw new Exception("file format error -- layout");
+        csc = layout == LAYOUT_CSC;
+        num_vertices = header.getInt(16);
+        num_edges = header.getLong(24);
+        if (num_vertices < 0 || num_edges < 0)
+            throw new Exception("file format error -- header");
+
+        long indexBytes = 8L * (num_vertices + 1);
+        long edgeBytes = 4L * num_edges;
+        if (fileChannel.size() < HEADER_SIZE + indexBytes + edgeBytes)
+            throw new Exception("premature end of file");
+
+        // The mappings stay valid after the channel is closed
+        index = ChunkedBuffer.map(fileChannel, HEADER_SIZE, indexBytes);
+        edges = ChunkedBuffer.map(fileChannel, HEADER_SIZE + indexBytes, edgeBytes);
+    }
+
+    // Write a CSR matrix to file in the binary format
+    public static void write(String file, SparseMatrixCSR matrix) throws IOException {
+        write(file, LAYOUT_CSR, matrix.num_vertices, matrix.index, matrix.destinations);
+    }
+
+    // Write a CSC matrix to file in the binary format
+    public static void write(String file, SparseMatrixCSC matrix) throws IOException {
+        write(file, LAYOUT_CSC, matrix.num_vertices, matrix.index, matrix.sources);
+    }
+
+    static void write(String file, int layout, int num_vertices, int[] index, int[] edges)
+            throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel fileChannel = raf.getChannel();
+            fileChannel.truncate(0);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(layout);
+            header.putInt(num_vertices);
+            header.putInt(0);
+            header.putLong(edges.length);
+            header.flip();
+            while (header.hasRemaining())
+                fileChannel.write(header);
+
+            writeLongs(fileChannel, index, num_vertices + 1);
+            writeInts(fileChannel, edges, edges.length);
+        }
+    }
+
+    // Write the int array as longs, as the index is stored with long offsets
+    private static void writeLongs(FileChannel fileChannel, int[] data, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        LongBuffer longs = buffer.asLongBuffer();
+        int where = 0;
+        while (where < length) {
+            int count = Math.min(longs.capacity(), length - where);
+            longs.clear();
+            for (int i = 0; i < count; i++)
+                longs.put(data[where + i]);
+            buffer.clear();
+            buffer.limit(count * 8);
+            while (buffer.hasRemaining())
+                fileChannel.write(buffer);
+            where += count;
+        }
+    }
+
+    private static void writeInts(FileChannel fileChannel, int[] data, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        IntBuffer ints = buffer.asIntBuffer();
+        int where = 0;
+        while (where < length) {
+            int count = Math.min(ints.capacity(), length - where);
+            ints.clear();
+            ints.put(data, where, count);
+            buffer.clear();
+            buffer.limit(count * 4);
+            while (buffer.hasRemaining())
+                fileChannel.write(buffer);
+            where += count;
+        }
+    }
+}
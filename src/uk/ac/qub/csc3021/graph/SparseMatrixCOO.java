@@ -21,11 +21,19 @@ public class SparseMatrixCOO extends SparseMatrix {
     int[] destinationEdges;
 
     int num_vertices; // Number of vertices in the graph
-    int num_edges;    // Number of edges in the graph
+    long num_edges;   // Number of edges in the graph
+
+    // Wrap arrays that hold the edges in COO layout, see GraphConverter
+    SparseMatrixCOO(int num_vertices, int[] sourceEdges, int[] destinationEdges) {
+        this.num_vertices = num_vertices;
+        this.num_edges = sourceEdges.length;
+        this.sourceEdges = sourceEdges;
+        this.destinationEdges = destinationEdges;
+    }
 
     public SparseMatrixCOO(String file) {
         try {
-            InputStreamReader is = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            InputStreamReader is = new InputStreamReader(GzipInput.open(file, 1), "UTF-8");
             BufferedReader rd = new BufferedReader(is);
             readFile(rd);
         } catch (FileNotFoundException e) {
@@ -40,11 +48,40 @@ public class SparseMatrixCOO extends SparseMatrix {
         }
     }
 
-    int getNext(BufferedReader rd) throws Exception {
+    // Load the file with num_threads threads off a memory mapping, without
+    // going through BufferedReader. See ParallelTextReader.
+    public SparseMatrixCOO(String file, int num_threads) {
+        try {
+            // A compressed file is parsed line by line as it is inflated
+            if (GzipInput.isGzip(file)) {
+                try (BufferedReader rd = GzipInput.openReader(file, num_threads)) {
+                    readFile(rd);
+                    GzipInput.drain(rd);
+                }
+                return;
+            }
+            ParallelTextReader reader = new ParallelTextReader(file, num_threads);
+            if (!reader.header.equalsIgnoreCase("COO"))
+                throw new Exception("file format error -- header");
+            num_vertices = reader.num_vertices;
+            num_edges = reader.num_edges;
+            sourceEdges = new int[arrayLength(num_edges)];
+            destinationEdges = new int[arrayLength(num_edges)];
+            reader.readPairs(sourceEdges, destinationEdges);
+        } catch (FileNotFoundException e) {
+            System.err.println("File not found: " + e);
+            return;
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+    }
+
+    long getNext(BufferedReader rd) throws Exception {
         String line = rd.readLine();
         if (line == null)
             throw new Exception("premature end of file");
-        return Integer.parseInt(line);
+        return Long.parseLong(line);
     }
 
     void getNextPair(BufferedReader rd, int pair[]) throws Exception {
@@ -63,12 +100,12 @@ public class SparseMatrixCOO extends SparseMatrix {
         if (!line.equalsIgnoreCase("COO"))
             throw new Exception("file format error -- header");
 
-        num_vertices = getNext(rd);
+        num_vertices = Math.toIntExact(getNext(rd));
         num_edges = getNext(rd);
 
         // TODO: Allocate memory for the COO representation
-        sourceEdges = new int[num_edges];
-        destinationEdges = new int[num_edges];
+        sourceEdges = new int[arrayLength(num_edges)];
+        destinationEdges = new int[arrayLength(num_edges)];
 
         int edge[] = new int[2];
         for (int i = 0; i < num_edges; ++i) {
@@ -86,7 +123,7 @@ public class SparseMatrixCOO extends SparseMatrix {
     }
 
     // Return number of edges in the graph
-    public int getNumEdges() {
+    public long getNumEdges() {
         return num_edges;
     }
 
@@ -110,13 +147,17 @@ public class SparseMatrixCOO extends SparseMatrix {
         }
     }
 
-    public void ranged_edgemap(Relax relax, int from, int to) {
-        // Only implement for parallel/concurrent processing
-        // if you find it useful
-//        for (int i = from; i <= to; i++) {
-//            relax.relax(sourceEdges[i], destinationEdges[i]);
-//        }
+    // The edges have no index, so ranges are ranges of edges
+    int getRangeLength() {
+        return (int) num_edges;
+    }
 
-        // race condition in relax.relax for COO so CSC will be used
+    // Visit the edges from...to (inclusive). Threads processing different
+    // ranges may update the same destination, so parallel contexts only call
+    // this with relax operations that are safe for that (see EdgeAccumulator)
+    public void ranged_edgemap(Relax relax, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            relax.relax(sourceEdges[i], destinationEdges[i]);
+        }
     }
 }
@@ -11,11 +11,19 @@ public class SparseMatrixCSC extends SparseMatrix {
     int[] sources;
 
     int num_vertices; // Number of vertices in the graph
-    int num_edges;    // Number of edges in the graph
+    long num_edges;   // Number of edges in the graph
+
+    // Wrap arrays that are already in CSC layout, see GraphConverter
+    SparseMatrixCSC(int num_vertices, int[] index, int[] sources) {
+        this.num_vertices = num_vertices;
+        this.num_edges = sources.length;
+        this.index = index;
+        this.sources = sources;
+    }
 
     public SparseMatrixCSC(String file) {
         try {
-            InputStreamReader is = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            InputStreamReader is = new InputStreamReader(GzipInput.open(file, 1), "UTF-8");
             BufferedReader rd = new BufferedReader(is);
             readFile(rd);
         } catch (FileNotFoundException e) {
@@ -30,11 +38,40 @@ public class SparseMatrixCSC extends SparseMatrix {
         }
     }
 
-    int getNext(BufferedReader rd) throws Exception {
+    // Load the file with num_threads threads off a memory mapping, without
+    // going through BufferedReader. See ParallelTextReader.
+    public SparseMatrixCSC(String file, int num_threads) {
+        try {
+            // A compressed file is parsed line by line as it is inflated
+            if (GzipInput.isGzip(file)) {
+                try (BufferedReader rd = GzipInput.openReader(file, num_threads)) {
+                    readFile(rd);
+                    GzipInput.drain(rd);
+                }
+                return;
+            }
+            ParallelTextReader reader = new ParallelTextReader(file, num_threads);
+            if (!reader.header.equalsIgnoreCase("CSC") && !reader.header.equalsIgnoreCase("CSC-CSR"))
+                throw new Exception("file format error -- header");
+            num_vertices = reader.num_vertices;
+            num_edges = reader.num_edges;
+            index = new int[num_vertices + 1];
+            sources = new int[arrayLength(num_edges)];
+            reader.readAdjacency(index, sources);
+        } catch (FileNotFoundException e) {
+            System.err.println("File not found: " + e);
+            return;
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+    }
+
+    long getNext(BufferedReader rd) throws Exception {
         String line = rd.readLine();
         if (line == null)
             throw new Exception("premature end of file");
-        return Integer.parseInt(line);
+        return Long.parseLong(line);
     }
 
     void readFile(BufferedReader rd) throws Exception {
@@ -44,12 +81,12 @@ public class SparseMatrixCSC extends SparseMatrix {
         if (!line.equalsIgnoreCase("CSC") && !line.equalsIgnoreCase("CSC-CSR"))
             throw new Exception("file format error -- header");
 
-        num_vertices = getNext(rd);
+        num_vertices = Math.toIntExact(getNext(rd));
         num_edges = getNext(rd);
 
         // TODO: allocate data structures
         index = new int[num_vertices + 1];
-        sources = new int[num_edges];
+        sources = new int[arrayLength(num_edges)];
 
         int where = 0;
         for (int i = 0; i < num_vertices; i++) {
@@ -68,7 +105,7 @@ public class SparseMatrixCSC extends SparseMatrix {
                 where++;
             }
         }
-        index[num_vertices] = num_edges;
+        index[num_vertices] = (int) num_edges;
     }
 
     // Return number of vertices in the graph
@@ -77,7 +114,7 @@ public class SparseMatrixCSC extends SparseMatrix {
     }
 
     // Return number of edges in the graph
-    public int getNumEdges() {
+    public long getNumEdges() {
         return num_edges;
     }
 
@@ -96,12 +133,22 @@ public class SparseMatrixCSC extends SparseMatrix {
         //    Iterate over all edges in the sparse matrix and call "relax"
         //    on each edge.
         for (int i = 0; i < num_vertices; i++) {
-            for (int j = index[i]; j < index[i + 1]; j++) {
-                relax.relax(sources[j], i);
-            }
+            relax.relaxIn(i, sources, index[i], index[i + 1]);
         }
     }
 
+    boolean groupsByDestination() {
+        return true;
+    }
+
+    SparseMatrix transpose() {
+        return new SparseMatrixCSR(num_vertices, index, sources);
+    }
+
+    long getEdgeOffset(int v) {
+        return index[v];
+    }
+
     public void ranged_edgemap(Relax relax, int from, int to) {
         // Only implement for parallel/concurrent processing
         // if you find it useful
@@ -110,9 +157,7 @@ public class SparseMatrixCSC extends SparseMatrix {
         //    the contribution to the new PageRank value of a destination
         //    vertex made by the corresponding source vertex
         for (int i = from; i <= to; i++) {
-            for (int j = index[i]; j < index[i + 1]; j++) {
-                relax.relax(sources[j], i);
-            }
+            relax.relaxIn(i, sources, index[i], index[i + 1]);
         }
     }
 }
@@ -11,11 +11,19 @@ public class SparseMatrixCSR extends SparseMatrix {
     int[] destinations;
 
     int num_vertices; // Number of vertices in the graph
-    int num_edges;    // Number of edges in the graph
+    long num_edges;   // Number of edges in the graph
+
+    // Wrap arrays that are already in CSR layout, see GraphConverter
+    SparseMatrixCSR(int num_vertices, int[] index, int[] destinations) {
+        this.num_vertices = num_vertices;
+        this.num_edges = destinations.length;
+        this.index = index;
+        this.destinations = destinations;
+    }
 
     public SparseMatrixCSR(String file) {
         try {
-            InputStreamReader is = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            InputStreamReader is = new InputStreamReader(GzipInput.open(file, 1), "UTF-8");
             BufferedReader rd = new BufferedReader(is);
             readFile(rd);
         } catch (FileNotFoundException e) {
@@ -30,11 +38,40 @@ public class SparseMatrixCSR extends SparseMatrix {
         }
     }
 
-    int getNext(BufferedReader rd) throws Exception {
+    // Load the file with num_threads threads off a memory mapping, without
+    // going through BufferedReader. See ParallelTextReader.
+    public SparseMatrixCSR(String file, int num_threads) {
+        try {
+            // A compressed file is parsed line by line as it is inflated
+            if (GzipInput.isGzip(file)) {
+                try (BufferedReader rd = GzipInput.openReader(file, num_threads)) {
+                    readFile(rd);
+                    GzipInput.drain(rd);
+                }
+                return;
+            }
+            ParallelTextReader reader = new ParallelTextReader(file, num_threads);
+            if (!reader.header.equalsIgnoreCase("CSR") && !reader.header.equalsIgnoreCase("CSC-CSR"))
+                throw new Exception("file format error -- header");
+            num_vertices = reader.num_vertices;
+            num_edges = reader.num_edges;
+            index = new int[num_vertices + 1];    // + 1 needed as the index array is accessed at position n later
+            destinations = new int[arrayLength(num_edges)];
+            reader.readAdjacency(index, destinations);
+        } catch (FileNotFoundException e) {
+            System.err.println("File not found: " + e);
+            return;
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+    }
+
+    long getNext(BufferedReader rd) throws Exception {
         String line = rd.readLine();
         if (line == null)
             throw new Exception("premature end of file");
-        return Integer.parseInt(line);
+        return Long.parseLong(line);
     }
 
     void readFile(BufferedReader rd) throws Exception {
@@ -44,12 +81,12 @@ public class SparseMatrixCSR extends SparseMatrix {
         if (!line.equalsIgnoreCase("CSR") && !line.equalsIgnoreCase("CSC-CSR"))
             throw new Exception("file format error -- header");
 
-        num_vertices = getNext(rd);
+        num_vertices = Math.toIntExact(getNext(rd));
         num_edges = getNext(rd);
 
         // TODO: Allocate memory for the CSR representation
         index = new int[num_vertices + 1];    // + 1 needed as the index array is accessed at position n later
-        destinations = new int[num_edges];
+        destinations = new int[arrayLength(num_edges)];
 
         int where = 0;
         for (int i = 0; i < num_vertices; i++) {
@@ -68,7 +105,7 @@ public class SparseMatrixCSR extends SparseMatrix {
                 where++;
             }
         }
-        index[num_vertices] = num_edges;
+        index[num_vertices] = (int) num_edges;
     }
 
     // Return number of vertices in the graph
@@ -77,7 +114,7 @@ public class SparseMatrixCSR extends SparseMatrix {
     }
 
     // Return number of edges in the graph
-    public int getNumEdges() {
+    public long getNumEdges() {
         return num_edges;
     }
 
@@ -98,22 +135,29 @@ public class SparseMatrixCSR extends SparseMatrix {
         //    the contribution to the new PageRank value of a destination
         //    vertex made by the corresponding source vertex
         for (int i = 0; i < num_vertices; i++) {
-            for (int j = index[i]; j < index[i + 1]; j++) {
-                relax.relax(i, destinations[j]);
-            }
+            relax.relaxOut(i, destinations, index[i], index[i + 1]);
         }
     }
 
+    boolean groupsBySource() {
+        return true;
+    }
+
+    SparseMatrix transpose() {
+        return new SparseMatrixCSC(num_vertices, index, destinations);
+    }
+
+    long getEdgeOffset(int v) {
+        return index[v];
+    }
+
     public void ranged_edgemap(Relax relax, int from, int to) {
-        // Only implement for parallel/concurrent processing
-        // if you find it useful
-//        for (int i = from; i <= to; i++) {
-//            for (int j = index[i]; j < index[i + 1]; j++) {
-//                relax.relax(i, destinations[j]);
-//            }
-//        }
-
-        // race condition in relax.relax for CSR so CSC will be used
+        // Threads processing different ranges may update the same
+        // destination, so parallel contexts only call this with relax
+        // operations that are safe for that (see EdgeAccumulator)
+        for (int i = from; i <= to; i++) {
+            relax.relaxOut(i, destinations, index[i], index[i + 1]);
+        }
     }
 }
 
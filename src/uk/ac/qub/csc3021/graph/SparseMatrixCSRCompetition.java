@@ -13,111 +13,63 @@ public class SparseMatrixCSRCompetition extends SparseMatrix {
     private int num_threads;
 
     private int num_vertices; // Number of vertices in the graph
-    private int num_edges;    // Number of edges in the graph
-    private int[] startingPos;
-
-//    // default constructor for validator
-//    public SparseMatrixCSRCompetition(String source) {
-////        System.out.println("Default constructor called");
-//        this.source = source;
-//        this.num_threads = 1;
-//        try {
-//            InputStreamReader is = new InputStreamReader(new FileInputStream(source), "UTF-8");
-//            BufferedReader rd = new BufferedReader(is);
-//
-//            String line = rd.readLine();
-//            if (line == null)
-//                throw new Exception("premature end of file");
-//            if (!line.equalsIgnoreCase("CSR") && !line.equalsIgnoreCase("CSC-CSR"))
-//                throw new Exception("file format error -- header");
-//
-//            num_vertices = getNext(rd);
-//            num_edges = getNext(rd);
-//            rd.close();
-//        } catch (Exception e) {
-//            System.err.println("Exception: " + e);
-//            return;
-//        }
-//
-//    }
+    private long num_edges;   // Number of edges in the graph
+    private long[] startingPos;
+
+    // In-memory CSR representation, only filled in when the matrix is
+    // constructed with in_memory set. The streaming mode re-reads the file
+    // on every edgemap instead.
+    private boolean in_memory;
+    private int[] index;
+    private int[] destinations;
 
     // overloaded constructor for when using multiple threads
     public SparseMatrixCSRCompetition(String source, int num_threads) {
-//        System.out.println("Overloaded constructor called");
+        this(source, num_threads, false);
+    }
+
+    // When in_memory is set, the file is parsed once by num_threads threads
+    // into the index and destinations arrays, and every later edgemap runs on
+    // those arrays. This suits iterative algorithms such as PageRank that
+    // sweep the graph many times; a single pass like the disjoint set union
+    // is faster streaming straight off the file.
+    public SparseMatrixCSRCompetition(String source, int num_threads, boolean in_memory) {
         this.source = source;
         this.num_threads = num_threads;
-
-        // creating a separate file channel here then closing it before creating the other file channel for the buffers
-        // for the individual threads, to ensure that the buffer memory gets released. The memory never seemed to
-        // get released for this big buffer and hence caused a lot of server out of memory exceptions when running on
-        // the server - as the memory is limited and is near its limit with the individual thread buffers already.
-        try (RandomAccessFile file = new RandomAccessFile(source, "r")) {
-            FileChannel fileChannel = file.getChannel();
-            int fileChannelSize = (int) fileChannel.size();
-
-            // start positions
-            MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannelSize);
-            byte prev;
-            int newLines = 3;
-            int vertices = 0;
-            int edges = 0;
-            while (newLines > 0) {
-                prev = buffer.get();
-                if (prev == 10) {
-                    newLines--;
-                } else if (newLines == 2) {
-                    vertices = (vertices * 10) + prev - 48;
-                } else if (newLines == 1) {
-                    edges = (edges * 10) + prev - 48;
-                }
-            }
-            this.num_vertices = vertices;
-            this.num_edges = edges;
-
-            // number of threads
-            startingPos = new int[num_threads + 1];
-            startingPos[0] = buffer.position(); // first position will always be after the edge's newline character
-
-            int fileChannelSizeNew = fileChannelSize - startingPos[0];
-            int bufferSize = fileChannelSizeNew / num_threads;
-
-            // get all the start and end positions for the buffers
-            for (int i = 1; i < num_threads; i++) {
-                int start = startingPos[i - 1] + bufferSize;
-                if (start >= fileChannelSize) {
-                    start = fileChannelSize - 1;
-                }
-                buffer.position(start);
-
-                byte prev2 = buffer.get();
-                while (prev2 != 10 && buffer.remaining() > 0) {
-                    prev2 = buffer.get();
-                }
-
-                startingPos[i] = buffer.position();
+        this.in_memory = in_memory;
+
+        // The reader maps the file in a buffer of its own that is released
+        // once the reader is no longer used, before the individual buffers for
+        // the threads are created in edgemap. The memory never seemed to get
+        // released for this big buffer otherwise and hence caused a lot of
+        // server out of memory exceptions when running on the server - as the
+        // memory is limited and is near its limit with the individual thread
+        // buffers already.
+        try {
+            ParallelTextReader reader = new ParallelTextReader(source, num_threads);
+            if (!reader.header.equalsIgnoreCase("CSR") && !reader.header.equalsIgnoreCase("CSC-CSR"))
+                throw new Exception("file format error -- header");
+            this.num_vertices = reader.num_vertices;
+            this.num_edges = reader.num_edges;
+            this.startingPos = reader.startingPos;
+
+            if (in_memory) {
+                index = new int[num_vertices + 1];
+                destinations = new int[arrayLength(num_edges)];
+                reader.readAdjacency(index, destinations);
             }
-            startingPos[num_threads] = fileChannelSize;
-
-            fileChannel.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    int getNext(BufferedReader rd) throws Exception {
-        String line = rd.readLine();
-        if (line == null)
-            throw new Exception("premature end of file");
-        return Integer.parseInt(line);
-    }
-
     // Return number of vertices in the graph
     public int getNumVertices() {
         return num_vertices;
     }
 
     // Return number of edges in the graph
-    public int getNumEdges() {
+    public long getNumEdges() {
         return num_edges;
     }
 
@@ -126,35 +78,51 @@ public class SparseMatrixCSRCompetition extends SparseMatrix {
         // TODO:
         //    Calculate the out-degree for every vertex, i.e., the
         //    number of edges where a vertex appears as a source vertex.
-//        for (int i = 0; i < num_vertices; i++) {
-//            outdeg[i] = index[i + 1] - index[i];
-//        }
+        if (in_memory) {
+            for (int i = 0; i < num_vertices; i++) {
+                outdeg[i] = index[i + 1] - index[i];
+            }
+            return;
+        }
+
+        // streaming mode: one parallel pass over the file that only counts
+        try {
+            new ParallelTextReader(source, num_threads).readDegrees(outdeg);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     // Apply relax once to every edge in the graph
     public void edgemap(Relax relax) {
+        if (in_memory) {
+            for (int i = 0; i < num_vertices; i++) {
+                relax.relaxOut(i, destinations, index[i], index[i + 1]);
+            }
+            return;
+        }
+
         try (RandomAccessFile file = new RandomAccessFile(source, "r")) {
             FileChannel fileChannel = file.getChannel();
-            int fileChannelSize = (int) fileChannel.size();
-
-            // number of threads
-            int fileChannelSizeNew = fileChannelSize - startingPos[0];
-            int bufferSize = fileChannelSizeNew / num_threads;
 
+            // One buffer cannot exceed 2GB, so large files are split in more
+            // parts than there are threads. Thread i processes parts i,
+            // i + num_threads, i + 2 * num_threads, ...
+            int num_parts = startingPos.length - 1;
             ThreadSimple[] threads = new ThreadSimple[num_threads];
 
             // create all the buffers
-            System.out.println("bufferSize: " + bufferSize);
             for (int i = 0; i < num_threads; i++) {
-                threads[i] = new ThreadSimple(
-                        // the +1 for the size ensures that the last value of the buffer is a new line character
-                        fileChannel.map(
-                                FileChannel.MapMode.READ_ONLY,
-                                startingPos[i],
-                                startingPos[i + 1] - startingPos[i]
-                        ),
-                        relax
-                );
+                MappedByteBuffer[] buffers = new MappedByteBuffer[(num_parts - i + num_threads - 1) / num_threads];
+                for (int k = 0; k < buffers.length; k++) {
+                    int part = i + k * num_threads;
+                    buffers[k] = fileChannel.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            startingPos[part],
+                            startingPos[part + 1] - startingPos[part]
+                    );
+                }
+                threads[i] = new ThreadSimple(buffers, relax);
                 threads[i].start();
             }
 
@@ -170,27 +138,46 @@ public class SparseMatrixCSRCompetition extends SparseMatrix {
 
     }
 
+    long getEdgeOffset(int v) {
+        return in_memory ? index[v] : v;
+    }
+
+    boolean groupsBySource() {
+        return in_memory;
+    }
+
+    SparseMatrix transpose() {
+        return in_memory ? new SparseMatrixCSC(num_vertices, index, destinations) : null;
+    }
+
     public void ranged_edgemap(Relax relax, int from, int to) {
         // Only implement for parallel/concurrent processing
         // if you find it useful
-//        for (int i = from; i <= to; i++) {
-//            for (int j = index[i]; j < index[i + 1]; j++) {
-//                relax.relax(i, destinations[j]);
-//            }
-//        }
+        // The streaming mode has no per-vertex access to the file, so ranges
+        // are only supported once the graph is in memory.
+        if (!in_memory)
+            return;
+        for (int i = from; i <= to; i++) {
+            relax.relaxOut(i, destinations, index[i], index[i + 1]);
+        }
     }
 }
 
 class ThreadSimple extends Thread {
-    private MappedByteBuffer buffer;
+    private MappedByteBuffer[] buffers;
     private Relax relax;
 
-    ThreadSimple(MappedByteBuffer buffer, Relax relax) {
-        this.buffer = buffer;
+    ThreadSimple(MappedByteBuffer[] buffers, Relax relax) {
+        this.buffers = buffers;
         this.relax = relax;
     }
 
     public void run() {
+        for (MappedByteBuffer buffer : buffers)
+            run(buffer);
+    }
+
+    private void run(MappedByteBuffer buffer) {
         // variable declarations
         char ch;
         int source;
@@ -0,0 +1,279 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.util.Arrays;
+
+// This class represents the adjacency matrix of a graph in compressed sparse
+// rows (CSR) or compressed sparse columns (CSC) layout, where every
+// adjacency list is compressed in the style of Ligra+. The neighbours of a
+// vertex are sorted and stored as differences (gaps) in a variable-length
+// byte code: seven bits per byte, with the top bit set on all but the last
+// byte of a value. The first neighbour is stored relative to the vertex
+// itself, with the sign folded into the lowest bit (zig-zag encoding).
+// Most gaps are small, so the lists typically shrink to a third or half of
+// their size as int arrays, and edgemap decodes them on the fly, trading
+// a few instructions per edge for much less memory traffic.
+public class SparseMatrixCompressed extends SparseMatrix {
+    int[] index;    // start of the adjacency list of each vertex in data
+    byte[] data;    // encoded adjacency lists
+    boolean csc;
+
+    int num_vertices; // Number of vertices in the graph
+    long num_edges;   // Number of edges in the graph
+
+    private SparseMatrixCompressed() {
+    }
+
+    // Compress a CSR matrix using num_threads threads
+    public SparseMatrixCompressed(SparseMatrixCSR matrix, int num_threads) {
+        try {
+            encode(false, matrix.num_vertices, matrix.num_edges, matrix.index, matrix.destinations, num_threads);
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+    }
+
+    // Compress a CSC matrix using num_threads threads
+    public SparseMatrixCompressed(SparseMatrixCSC matrix, int num_threads) {
+        try {
+            encode(true, matrix.num_vertices, matrix.num_edges, matrix.index, matrix.sources, num_threads);
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+    }
+
+    // Load a file in CSR, CSC or CSC-CSR format with num_threads threads and
+    // compress it. A CSC-CSR file is used as CSC. The uncompressed arrays
+    // are only needed while compressing.
+    public SparseMatrixCompressed(String file, int num_threads) {
+        try {
+            ParallelTextReader reader = new ParallelTextReader(file, num_threads);
+            boolean csc;
+            if (reader.header.equalsIgnoreCase("CSC") || reader.header.equalsIgnoreCase("CSC-CSR"))
+                csc = true;
+            else if (reader.header.equalsIgnoreCase("CSR"))
+                csc = false;
+            else
+                throw new Exception("file format error -- header");
+
+            int[] index = new int[reader.num_vertices + 1];
+            int[] adjacency = new int[arrayLength(reader.num_edges)];
+            reader.readAdjacency(index, adjacency);
+            encode(csc, reader.num_vertices, reader.num_edges, index, adjacency, num_threads);
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+    }
+
+    // Encode the adjacency lists in two parallel passes: the first works out
+    // the encoded size of every list, a prefix sum turns those sizes into
+    // positions in data, and the second pass writes the encoded lists.
+    private void encode(boolean csc, int num_vertices, long num_edges, int[] adjIndex,
+                        int[] adjacency, int num_threads) throws Exception {
+        this.csc = csc;
+        this.num_vertices = num_vertices;
+        this.num_edges = num_edges;
+        index = new int[num_vertices + 1];
+
+        EncodeThread[] threads = new EncodeThread[num_threads];
+        int rangeLength = (num_vertices + num_threads - 1) / num_threads;
+        for (int i = 0; i < num_threads; i++) {
+            int from = Math.min(i * rangeLength, num_vertices);
+            int to = Math.min(from + rangeLength, num_vertices);
+            threads[i] = new EncodeThread(from, to, adjIndex, adjacency);
+        }
+        runAll(threads);
+
+        long where = 0;
+        for (int i = 0; i <= num_vertices; i++) {
+            long size = i < num_vertices ? index[i] : 0;
+            index[i] = arrayLength(where);
+            where += size;
+        }
+        data = new byte[arrayLength(where)];
+
+        for (EncodeThread t : threads)
+            t.write = true;
+        runAll(threads);
+    }
+
+    private static void runAll(EncodeThread[] threads) throws Exception {
+        Thread[] running = new Thread[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            running[i] = new Thread(threads[i]);
+            running[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            running[i].join();
+        }
+    }
+
+    // Encodes the adjacency lists of vertices from...to-1. Without write set,
+    // it only stores the encoded size of each list in index.
+    private class EncodeThread implements Runnable {
+        private final int from;
+        private final int to;
+        private final int[] adjIndex;
+        private final int[] adjacency;
+        boolean write = false;
+
+        EncodeThread(int from, int to, int[] adjIndex, int[] adjacency) {
+            this.from = from;
+            this.to = to;
+            this.adjIndex = adjIndex;
+            this.adjacency = adjacency;
+        }
+
+        public void run() {
+            int[] scratch = new int[16];
+            for (int v = from; v < to; v++) {
+                int degree = adjIndex[v + 1] - adjIndex[v];
+                if (scratch.length < degree)
+                    scratch = new int[Math.max(degree, 2 * scratch.length)];
+                System.arraycopy(adjacency, adjIndex[v], scratch, 0, degree);
+                Arrays.sort(scratch, 0, degree);
+
+                int pos = write ? index[v] : 0;
+                int prev = v;
+                for (int k = 0; k < degree; k++) {
+                    int value = k == 0 ? zigzag(scratch[0] - v) : scratch[k] - prev;
+                    pos = write ? putVarint(data, pos, value) : pos + varintSize(value);
+                    prev = scratch[k];
+                }
+                if (!write)
+                    index[v] = pos;
+            }
+        }
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Store value at data[pos...] and return the position after it
+    static int putVarint(byte[] data, int pos, int value) {
+        while ((value & ~0x7f) != 0) {
+            data[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[pos++] = (byte) value;
+        return pos;
+    }
+
+    // Return number of vertices in the graph
+    public int getNumVertices() {
+        return num_vertices;
+    }
+
+    // Return number of edges in the graph
+    public long getNumEdges() {
+        return num_edges;
+    }
+
+    // Return the size of the encoded adjacency lists in bytes
+    public long getEncodedSize() {
+        return data.length;
+    }
+
+    // Auxiliary function for PageRank calculation
+    public void calculateOutDegree(int outdeg[]) {
+        edgemap((src, dst) -> outdeg[src]++);
+    }
+
+    // Apply relax once to every edge in the graph
+    public void edgemap(Relax relax) {
+        ranged_edgemap(relax, 0, num_vertices - 1);
+    }
+
+    boolean groupsByDestination() {
+        return csc;
+    }
+
+    boolean groupsBySource() {
+        return !csc;
+    }
+
+    // The lists are encoded relative to their own vertex whatever the
+    // layout, so the transpose shares the encoded data
+    SparseMatrix transpose() {
+        SparseMatrixCompressed t = new SparseMatrixCompressed();
+        t.index = index;
+        t.data = data;
+        t.csc = !csc;
+        t.num_vertices = num_vertices;
+        t.num_edges = num_edges;
+        return t;
+    }
+
+    // The encoded size is a fair measure of the work of decoding a list,
+    // so the offsets are in bytes rather than edges
+    long getEdgeOffset(int v) {
+        return index[v];
+    }
+
+    // Every value ends in the one byte of it with the top bit clear
+    long getDegree(int v) {
+        final byte[] data = this.data;
+        int degree = 0;
+        for (int pos = index[v]; pos < index[v + 1]; pos++) {
+            if (data[pos] >= 0)
+                degree++;
+        }
+        return degree;
+    }
+
+    // Visit the edges of the vertices from...to (inclusive). For the CSC layout
+    // these are the incoming edges, for the CSR layout the outgoing edges.
+    // Each list is decoded into the scratch array of the thread (see
+    // SparseMatrix.scratch), so relax sees a whole list at once.
+    public void ranged_edgemap(Relax relax, int from, int to) {
+        final byte[] data = this.data;
+        int[] list = scratch(0);
+        for (int i = from; i <= to; i++) {
+            int pos = index[i];
+            int end = index[i + 1];
+            int nbr = i;
+            int degree = 0;
+            boolean first = true;
+            while (pos < end) {
+                // decode one variable-length value
+                int b = data[pos++];
+                int value = b & 0x7f;
+                int shift = 7;
+                while (b < 0) {
+                    b = data[pos++];
+                    value |= (b & 0x7f) << shift;
+                    shift += 7;
+                }
+                if (first) {
+                    nbr += unzigzag(value);
+                    first = false;
+                } else {
+                    nbr += value;
+                }
+                if (degree == list.length)
+                    list = scratch(degree + 1);
+                list[degree++] = nbr;
+            }
+            if (csc)
+                relax.relaxIn(i, list, 0, degree);
+            else
+                relax.relaxOut(i, list, 0, degree);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package uk.ac.qub.csc3021.graph;
+
+// This class represents the adjacency matrix of a graph in compressed sparse
+// rows (CSR) or compressed sparse columns (CSC) layout, where the index and
+// adjacency arrays are kept outside the Java heap. The heap then stays small
+// however large the graph is, the garbage collector never has to scan or
+// move the graph, and edge positions are longs, so graphs are not limited
+// by the maximum length of a Java array.
+//
+// The memory is either allocated off-heap while parsing a text file, or it
+// is a memory mapping of a file in the binary format (see
+// SparseMatrixBinary). Java 17 offers the Foreign Memory API only as an
+// incubator module, so the memory is accessed through direct and mapped
+// ByteBuffers, in chunks of at most 1GB (see ChunkedBuffer).
+public class SparseMatrixOffHeap extends SparseMatrix {
+    ChunkedBuffer index;   // n + 1 longs
+    ChunkedBuffer edges;   // destinations (CSR) or sources (CSC)
+    boolean csc;
+
+    int num_vertices;      // Number of vertices in the graph
+    long num_edges;        // Number of edges in the graph
+
+    SparseMatrixOffHeap() {
+    }
+
+    // Load a file in CSR, CSC or CSC-CSR format with num_threads threads
+    // straight into off-heap memory. A CSC-CSR file is used as CSC.
+    public SparseMatrixOffHeap(String file, int num_threads) {
+        try {
+            ParallelTextReader reader = new ParallelTextReader(file, num_threads);
+            if (reader.header.equalsIgnoreCase("CSC") || reader.header.equalsIgnoreCase("CSC-CSR"))
+                csc = true;
+            else if (!reader.header.equalsIgnoreCase("CSR"))
+                throw new Exception("file format error -- header");
+            num_vertices = reader.num_vertices;
+            num_edges = reader.num_edges;
+
+            index = ChunkedBuffer.allocate(8L * (num_vertices + 1));
+            edges = ChunkedBuffer.allocate(4L * num_edges);
+            reader.readAdjacency(index, edges);
+        } catch (Exception e) {
+            System.err.println("Exception: " + e);
+            return;
+        }
+    }
+
+    // Return number of vertices in the graph
+    public int getNumVertices() {
+        return num_vertices;
+    }
+
+    // Return number of edges in the graph
+    public long getNumEdges() {
+        return num_edges;
+    }
+
+    // Auxiliary function for PageRank calculation
+    public void calculateOutDegree(int outdeg[]) {
+        if (csc) {
+            for (long i = 0; i < num_edges; i++) {
+                outdeg[edges.getInt(i)]++;
+            }
+        } else {
+            for (int i = 0; i < num_vertices; i++) {
+                outdeg[i] = (int) (index.getLong(i + 1) - index.getLong(i));
+            }
+        }
+    }
+
+    // Apply relax once to every edge in the graph
+    public void edgemap(Relax relax) {
+        ranged_edgemap(relax, 0, num_vertices - 1);
+    }
+
+    boolean groupsByDestination() {
+        return csc;
+    }
+
+    boolean groupsBySource() {
+        return !csc;
+    }
+
+    SparseMatrix transpose() {
+        SparseMatrixOffHeap t = new SparseMatrixOffHeap();
+        t.index = index;
+        t.edges = edges;
+        t.csc = !csc;
+        t.num_vertices = num_vertices;
+        t.num_edges = num_edges;
+        return t;
+    }
+
+    long getEdgeOffset(int v) {
+        return index.getLong(v);
+    }
+
+    // Visit the edges of the vertices from...to (inclusive). For the CSC layout
+    // these are the incoming edges, for the CSR layout the outgoing edges.
+    // Each list is copied to the scratch array of the thread (see
+    // SparseMatrix.scratch), so relax sees a whole list at once.
+    public void ranged_edgemap(Relax relax, int from, int to) {
+        int[] list = scratch(0);
+        for (int i = from; i <= to; i++) {
+            long start = index.getLong(i);
+            int degree = (int) (index.getLong(i + 1) - start);
+            if (degree > list.length)
+                list = scratch(degree);
+            for (int j = 0; j < degree; j++) {
+                list[j] = edges.getInt(start + j);
+            }
+            if (csc)
+                relax.relaxIn(i, list, 0, degree);
+            else
+                relax.relaxOut(i, list, 0, degree);
+        }
+    }
+}
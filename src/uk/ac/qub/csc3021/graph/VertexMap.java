@@ -0,0 +1,7 @@
+package uk.ac.qub.csc3021.graph;
+
+// Functional interface that describes the operation performed on a range of
+// vertices from...to-1, as used by ParallelContext.vertexmap.
+interface VertexMap {
+    public void apply(int from, int to);
+}
@@ -0,0 +1,138 @@
+package uk.ac.qub.csc3021.graph;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// A subset of the vertices of a graph, such as the frontier of a frontier
+// edgemap: the vertices whose value changed in the last step, and the only
+// ones whose outgoing edges need to be visited in the next (see
+// ParallelContext.edgemap).
+//
+// A subset is held in one of two forms, or both:
+//  - dense: a bitmap of one bit per vertex in a long[], which a pull needs
+//    to look up whether a source is a member. Threads add members with an
+//    atomic OR, as neighbouring vertices share a word.
+//  - sparse: an int[] listing the members, which a push needs to visit
+//    only the members. It takes memory and time in proportion to the
+//    number of members rather than the number of vertices.
+// Either form is built from the other in parallel when needed, and kept.
+public class VertexSubset {
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int n;
+    private long[] bits;      // dense form, or null
+    private int[] members;    // sparse form, or null
+    private final int size;   // number of members
+
+    // A subset in dense form with size members
+    VertexSubset(int n, long[] bits, int size) {
+        this.n = n;
+        this.bits = bits;
+        this.size = size;
+    }
+
+    // A subset in sparse form listing the members (in any order)
+    VertexSubset(int n, int[] members) {
+        this.n = n;
+        this.members = members;
+        this.size = members.length;
+    }
+
+    // The subset of all vertices 0...n-1
+    public static VertexSubset all(int n) {
+        long[] bits = newBitmap(n);
+        for (int w = 0; w < bits.length; w++)
+            bits[w] = -1L;
+        if ((n & 63) != 0)
+            bits[bits.length - 1] = (1L << (n & 63)) - 1;
+        return new VertexSubset(n, bits, n);
+    }
+
+    public int getNumVertices() {
+        return n;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isDense() {
+        return bits != null;
+    }
+
+    // Is v a member? Only for subsets in dense form.
+    public boolean contains(int v) {
+        return (bits[v >>> 6] & (1L << v)) != 0;
+    }
+
+    static long[] newBitmap(int n) {
+        return new long[(n + 63) >>> 6];
+    }
+
+    // Atomically add v to bitmap bits; true if v was not a member before
+    static boolean set(long[] bits, int v) {
+        long mask = 1L << v;
+        return ((long) BITS.getAndBitwiseOr(bits, v >>> 6, mask) & mask) == 0;
+    }
+
+    // Return the dense form, building it from the sparse form if needed.
+    // Every thread sets the bits of one slice of the members.
+    long[] toDense(ParallelContext context) {
+        if (bits == null) {
+            long[] b = newBitmap(n);
+            int[] m = members;
+            int num_parts = context.getNumThreads();
+            context.parallelFor(num_parts, p -> {
+                int to = slice(m.length, p + 1, num_parts);
+                for (int i = slice(m.length, p, num_parts); i < to; i++)
+                    set(b, m[i]);
+            });
+            bits = b;
+        }
+        return bits;
+    }
+
+    // Return the sparse form, building it from the dense form if needed.
+    // Every thread counts the members in one range of words, and a prefix
+    // sum over the counts tells it where to list them, in increasing order.
+    int[] toSparse(ParallelContext context) {
+        if (members == null) {
+            long[] b = bits;
+            int num_parts = context.getNumThreads();
+            int[] start = new int[num_parts + 1];
+            context.parallelFor(num_parts, p -> {
+                int c = 0;
+                int to = slice(b.length, p + 1, num_parts);
+                for (int w = slice(b.length, p, num_parts); w < to; w++)
+                    c += Long.bitCount(b[w]);
+                start[p + 1] = c;
+            });
+            for (int p = 0; p < num_parts; p++)
+                start[p + 1] += start[p];
+
+            int[] m = new int[start[num_parts]];
+            context.parallelFor(num_parts, p -> {
+                int pos = start[p];
+                int to = slice(b.length, p + 1, num_parts);
+                for (int w = slice(b.length, p, num_parts); w < to; w++) {
+                    long word = b[w];
+                    while (word != 0) {
+                        m[pos++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            });
+            members = m;
+        }
+        return members;
+    }
+
+    // The start of slice p of num_parts slices of 0...length-1
+    static int slice(int length, int p, int num_parts) {
+        return (int) ((long) length * p / num_parts);
+    }
+}
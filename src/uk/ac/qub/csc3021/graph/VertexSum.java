@@ -0,0 +1,7 @@
+package uk.ac.qub.csc3021.graph;
+
+// Functional interface that sums a value over a range of vertices
+// from...to-1, as used by ParallelContext.vertexsum.
+interface VertexSum {
+    public double sum(int from, int to);
+}